@@ -41,4 +41,11 @@ public abstract class Kernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public abstract void terminate();
+
+	/**
+	 * Print any statistics kept by this kernel. Called by
+	 * <tt>Stats.print()</tt> after the machine statistics are printed.
+	 */
+	public void printStats() {
+	}
 }
@@ -343,6 +343,16 @@ public final class Machine {
 		return processor;
 	}
 
+	/**
+	 * Return the machine statistics, which the kernel updates for events the
+	 * hardware cannot see, such as paging I/O.
+	 * 
+	 * @return the machine statistics.
+	 */
+	public static Stats stats() {
+		return stats;
+	}
+
 	/**
 	 * Return the hardware console.
 	 * 
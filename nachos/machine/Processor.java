@@ -81,6 +81,30 @@ public final class Processor {
 		return exceptionHandler;
 	}
 
+	/**
+	 * Set the page reference tracer, called after every successful address
+	 * translation. Pass <tt>null</tt> to stop tracing.
+	 * 
+	 * @param tracer the tracer to notify, or <tt>null</tt>.
+	 */
+	public void setReferenceTracer(ReferenceTracer tracer) {
+		this.referenceTracer = tracer;
+	}
+
+	/**
+	 * Receives the virtual page of every memory reference the processor
+	 * translates. Used by kernels to record page reference traces.
+	 */
+	public interface ReferenceTracer {
+		/**
+		 * Called after a memory reference has been translated.
+		 * 
+		 * @param vpn the virtual page that was referenced.
+		 * @param writing <tt>true</tt> if the reference was a write.
+		 */
+		public void reference(int vpn, boolean writing);
+	}
+
 	/**
 	 * Start executing instructions at the current PC. Never returns.
 	 */
@@ -355,6 +379,9 @@ public final class Processor {
 
 		int paddr = (ppn * pageSize) + offset;
 
+		if (referenceTracer != null)
+			referenceTracer.reference(vpn, writing);
+
 		if (Lib.test(dbgProcessor))
 			System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
 		return paddr;
@@ -574,6 +601,9 @@ public final class Processor {
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
 
+	/** The page reference tracer, or <tt>null</tt> if tracing is off. */
+	private ReferenceTracer referenceTracer = null;
+
 	private static final char dbgProcessor = 'p';
 
 	private static final char dbgDisassemble = 'm';
@@ -31,6 +31,8 @@ public final class Stats {
 			        + ", swap writes " + numSwapWrites);
 		System.out.println("Network I/O: received " + numPacketsReceived
 				+ ", sent " + numPacketsSent);
+		if (Kernel.kernel != null)
+			Kernel.kernel.printStats();
 	}
 
 	/**
@@ -0,0 +1,58 @@
+/*
+ * aio1.c
+ *
+ * Test aio_read, aio_write, aio_poll and aio_wait.  Two writes queued on
+ * one descriptor complete in order, and a read started before the
+ * process does other work returns the data once waited for.  Needs
+ * UserKernel.aioWorkers set in nachos.conf.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+char *name = "aio1.out";
+char buf[64];
+
+int
+main (int argc, char *argv[])
+{
+    int fd, id1, id2, r1, r2, busy, i;
+
+    fd = creat (name);
+    id1 = aio_write (fd, "first ", 6);
+    if (id1 == -1) {
+	printf ("...aio_write failed; is UserKernel.aioWorkers set?\n");
+	exit (-1);
+    }
+    id2 = aio_write (fd, "second", 6);
+    r2 = aio_wait (id2);
+    r1 = aio_wait (id1);
+    close (fd);
+    if (r1 != 6 || r2 != 6) {
+	printf ("...aio_write failed (r1 = %d, r2 = %d)\n", r1, r2);
+	exit (-1);
+    }
+    if (aio_wait (id1) != -1 || aio_poll (id1) != -1) {
+	printf ("...a waited-for id was not released\n");
+	exit (-1);
+    }
+    printf ("...aio_write passed\n");
+
+    fd = open (name);
+    id1 = aio_read (fd, buf, sizeof (buf));
+    /* do something useful while the read is in progress */
+    busy = 0;
+    for (i = 0; i < 1000 && aio_poll (id1) == 0; i++)
+	busy++;
+    r1 = aio_wait (id1);
+    close (fd);
+    unlink (name);
+    if (r1 != 12 || strncmp (buf, "first second", 12) != 0) {
+	printf ("...aio_read failed (r = %d)\n", r1);
+	exit (-1);
+    }
+    printf ("...aio_read passed (polled %d times before it completed)\n", busy);
+
+    return 0;
+}
@@ -0,0 +1,76 @@
+/*
+ * dup1.c
+ *
+ * Test dup and how exec hands a child its standard output.  Two
+ * descriptors for one file share a position, and a child exec-ed while
+ * stdout refers to a file writes into that file.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+char *name = "dup1.out";
+char buf[128];
+
+int
+main (int argc, char *argv[])
+{
+    char *args[2];
+    int fd, copy, console, pid, status, n;
+
+    fd = creat (name);
+    copy = dup (fd);
+    if (fd < 0 || copy < 0 || copy == fd) {
+	printf ("dup failed (fd = %d, copy = %d)\n", fd, copy);
+	exit (-1);
+    }
+    write (fd, "abc", 3);
+    write (copy, "def", 3);
+    close (fd);
+    close (copy);
+
+    fd = open (name);
+    n = read (fd, buf, sizeof (buf));
+    close (fd);
+    if (n != 6 || strncmp (buf, "abcdef", 6) != 0) {
+	printf ("...shared position failed (read %d bytes)\n", n);
+	exit (-1);
+    }
+    printf ("...shared position passed\n");
+
+    /* run echo with stdout sent to the file */
+    console = dup (1);
+    close (1);
+    fd = creat (name);
+    if (fd != 1) {
+	printf ("creat did not reuse stdout (fd = %d)\n", fd);
+	exit (-1);
+    }
+    args[0] = "echo.coff";
+    args[1] = "hello";
+    pid = exec ("echo.coff", 2, args);
+    if (pid > 0)
+	join (pid, &status);
+    close (1);
+    dup (console);
+    close (console);
+    if (pid <= 0) {
+	printf ("...exec failed (pid = %d)\n", pid);
+	exit (-1);
+    }
+
+    fd = open (name);
+    n = read (fd, buf, sizeof (buf) - 1);
+    close (fd);
+    unlink (name);
+    buf[n > 0 ? n : 0] = '\0';
+    printf ("child wrote:\n%s", buf);
+    if (strcmp (buf, "2 arguments\narg 0: echo.coff\narg 1: hello\n") != 0) {
+	printf ("...inherited stdout failed\n");
+	exit (-1);
+    }
+    printf ("...inherited stdout passed\n");
+
+    return 0;
+}
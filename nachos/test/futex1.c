@@ -0,0 +1,60 @@
+/*
+ * futex1.c
+ *
+ * Test futex_wait and futex_wake.  A wait on a word that has already
+ * changed returns at once, a wait with a timeout expires, and a thread
+ * sleeping on a word is woken by another.  Needs UserProcess.maxThreads
+ * of at least 2 in nachos.conf.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+int word;
+
+void
+waiter (int unused)
+{
+    thread_exit (futex_wait (&word, 0, 0));
+}
+
+int
+main (int argc, char *argv[])
+{
+    int tid, status, r;
+
+    word = 1;
+    if ((r = futex_wait (&word, 0, 0)) != 1) {
+	printf ("...wait on a changed word failed (r = %d)\n", r);
+	exit (-1);
+    }
+    word = 0;
+    if ((r = futex_wait (&word, 0, 1000)) != 2) {
+	printf ("...wait with a timeout failed (r = %d)\n", r);
+	exit (-1);
+    }
+    if ((r = futex_wake (&word, 1)) != 0) {
+	printf ("...wake with no waiters failed (r = %d)\n", r);
+	exit (-1);
+    }
+    printf ("...changed word and timeout passed\n");
+
+    tid = thread_create (waiter, 0);
+    if (tid <= 0) {
+	printf ("...thread_create failed (tid = %d)\n", tid);
+	exit (-1);
+    }
+    /* the waiter may not have gone to sleep yet */
+    while (futex_wake (&word, 1) == 0)
+	sleep (100);
+    status = -1;
+    thread_join (tid, &status);
+    if (status != 0) {
+	printf ("...wake failed (status = %d)\n", status);
+	exit (-1);
+    }
+    printf ("...wait and wake passed\n");
+
+    return 0;
+}
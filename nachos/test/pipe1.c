@@ -0,0 +1,72 @@
+/*
+ * pipe1.c
+ *
+ * Test pipe.  Data written to a pipe comes out of the read end in order,
+ * and the reader sees end of file once every write descriptor is closed,
+ * including the one a child exec-ed with stdout on the pipe was given.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+char buf[128];
+
+int
+main (int argc, char *argv[])
+{
+    char *args[2];
+    int fds[2], console, pid, status, n, total;
+
+    if (pipe (fds) != 0) {
+	printf ("...pipe failed\n");
+	exit (-1);
+    }
+    write (fds[1], "hello, ", 7);
+    write (fds[1], "pipe", 4);
+    close (fds[1]);
+    n = read (fds[0], buf, sizeof (buf));
+    if (n != 11 || strncmp (buf, "hello, pipe", 11) != 0) {
+	printf ("...read failed (n = %d)\n", n);
+	exit (-1);
+    }
+    n = read (fds[0], buf, sizeof (buf));
+    close (fds[0]);
+    if (n != 0) {
+	printf ("...end of file failed (n = %d)\n", n);
+	exit (-1);
+    }
+    printf ("...read and end of file passed\n");
+
+    /* run echo with stdout on the pipe, and read what it wrote */
+    pipe (fds);
+    console = dup (1);
+    close (1);
+    dup (fds[1]);
+    close (fds[1]);
+    args[0] = "echo.coff";
+    args[1] = "piped";
+    pid = exec ("echo.coff", 2, args);
+    close (1);
+    dup (console);
+    close (console);
+    if (pid <= 0) {
+	printf ("...exec failed (pid = %d)\n", pid);
+	exit (-1);
+    }
+
+    /* the child holds the last write descriptor, so this ends when it exits */
+    total = 0;
+    while ((n = read (fds[0], buf + total, sizeof (buf) - 1 - total)) > 0)
+	total += n;
+    close (fds[0]);
+    join (pid, &status);
+    buf[total] = '\0';
+    if (strcmp (buf, "2 arguments\narg 0: echo.coff\narg 1: piped\n") != 0) {
+	printf ("...child output failed:\n%s", buf);
+	exit (-1);
+    }
+    printf ("...child output passed\n");
+
+    return 0;
+}
@@ -0,0 +1,76 @@
+/*
+ * rlimit1.c
+ *
+ * Test getrusage, getrlimit and setrlimit.  The usage counts follow open
+ * descriptors and unjoined children, a lowered soft limit makes pipe() and
+ * exec() fail, a hard limit cannot be raised, and a child exec-ed by this
+ * program inherits its limits.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+int
+main (int argc, char *argv[])
+{
+    char *args[2];
+    int usage[rusageNumFields], limits[2], fds[2], pid, status;
+
+    if (argc > 1) {
+	/* the child: the limit set by the parent must have been inherited */
+	getrlimit (RLIMIT_CHILDREN, limits);
+	exit (limits[0] == 1 ? 0 : 1);
+    }
+
+    pipe (fds);
+    if (getrusage (usage) != 0 || usage[rusageFiles] != 4
+	|| usage[rusageChildren] != 0 || usage[rusageFrames] <= 0) {
+	printf ("...getrusage failed (files = %d)\n", usage[rusageFiles]);
+	exit (-1);
+    }
+    close (fds[0]);
+    close (fds[1]);
+
+    if (getrlimit (RLIMIT_FILES, limits) != 0 || limits[0] < 4) {
+	printf ("...getrlimit failed\n");
+	exit (-1);
+    }
+    if (setrlimit (RLIMIT_FILES, 3, limits[1]) != 0 || pipe (fds) != -1) {
+	printf ("...soft file limit failed\n");
+	exit (-1);
+    }
+    if (setrlimit (RLIMIT_FILES, 3, 3) != 0
+	|| setrlimit (RLIMIT_FILES, 4, 4) != -1
+	|| setrlimit (RLIMIT_FILES, 3, RLIM_INFINITY) != -1) {
+	printf ("...raising the hard file limit did not fail\n");
+	exit (-1);
+    }
+    printf ("...file limits passed\n");
+
+    args[0] = "rlimit1.coff";
+    args[1] = "child";
+    setrlimit (RLIMIT_CHILDREN, 1, 1);
+    pid = exec ("rlimit1.coff", 2, args);
+    if (pid <= 0 || exec ("rlimit1.coff", 2, args) != -1) {
+	printf ("...soft child limit failed (pid = %d)\n", pid);
+	exit (-1);
+    }
+    getrusage (usage);
+    if (usage[rusageChildren] != 1) {
+	printf ("...getrusage children failed (%d)\n", usage[rusageChildren]);
+	exit (-1);
+    }
+    if (join (pid, &status) != 1 || status != 0) {
+	printf ("...child did not inherit the limit\n");
+	exit (-1);
+    }
+    getrusage (usage);
+    if (usage[rusageChildren] != 0) {
+	printf ("...getrusage children after join failed\n");
+	exit (-1);
+    }
+    printf ("...child limits passed\n");
+
+    return 0;
+}
@@ -0,0 +1,85 @@
+/*
+ * shm1.c
+ *
+ * Test shmget, shmat and shmdt.  A child exec-ed with the id of a segment
+ * attaches it, reads what the parent wrote there and writes a reply.  The
+ * segment is freed when the last attachment is detached.  Children that
+ * create segments and exit without attaching them must not use up the
+ * segments for good.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+#define NUM_GETS	4
+#define NUM_CHILDREN	8	/* more segments than may exist at once */
+
+int
+run (char *arg1, char *arg2)
+{
+    char *args[3];
+    int pid, status;
+
+    args[0] = "shm1.coff";
+    args[1] = arg1;
+    args[2] = arg2;
+    pid = exec ("shm1.coff", 3, args);
+    if (pid <= 0 || join (pid, &status) != 1)
+	return -1;
+    return status;
+}
+
+int
+main (int argc, char *argv[])
+{
+    char idString[16], *shared;
+    int id, i;
+
+    if (argc > 2 && strcmp (argv[1], "attach") == 0) {
+	shared = shmat (atoi (argv[2]));
+	if (shared == (char *) -1 || strcmp (shared, "from parent") != 0)
+	    exit (1);
+	strcpy (shared, "from child");
+	exit (shmdt (shared) == 0 ? 0 : 1);
+    }
+    if (argc > 2 && strcmp (argv[1], "get") == 0) {
+	for (i = 0; i < NUM_GETS; i++) {
+	    if (shmget (0, 100) == -1)
+		exit (1);
+	}
+	exit (0);
+    }
+
+    id = shmget (0, 5000);
+    shared = shmat (id);
+    if (id == -1 || shared == (char *) -1) {
+	printf ("...shmget or shmat failed (id = %d)\n", id);
+	exit (-1);
+    }
+    strcpy (shared, "from parent");
+    sprintf (idString, "%d", id);
+    if (run ("attach", idString) != 0 || strcmp (shared, "from child") != 0) {
+	printf ("...sharing with a child failed\n");
+	exit (-1);
+    }
+    if (shmdt (shared) != 0 || shmdt (shared) != -1) {
+	printf ("...shmdt failed\n");
+	exit (-1);
+    }
+    if (shmat (id) != (void *) -1) {
+	printf ("...segment not freed by the last shmdt\n");
+	exit (-1);
+    }
+    printf ("...attach and detach passed\n");
+
+    for (i = 0; i < NUM_CHILDREN; i++) {
+	if (run ("get", "") != 0) {
+	    printf ("...unattached segments not freed (child %d)\n", i);
+	    exit (-1);
+	}
+    }
+    printf ("...unattached segments passed\n");
+
+    return 0;
+}
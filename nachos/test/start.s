@@ -67,3 +67,26 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(vmstat, syscallVMStat)
+	SYSCALLSTUB(dup, syscallDup)
+	SYSCALLSTUB(pipe, syscallPipe)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(aio_read, syscallAioRead)
+	SYSCALLSTUB(aio_write, syscallAioWrite)
+	SYSCALLSTUB(aio_wait, syscallAioWait)
+	SYSCALLSTUB(aio_poll, syscallAioPoll)
+	SYSCALLSTUB(thread_create, syscallThreadCreate)
+	SYSCALLSTUB(thread_join, syscallThreadJoin)
+	SYSCALLSTUB(thread_exit, syscallThreadExit)
+	SYSCALLSTUB(futex_wait, syscallFutexWait)
+	SYSCALLSTUB(futex_wake, syscallFutexWake)
+	SYSCALLSTUB(shmget, syscallShmGet)
+	SYSCALLSTUB(shmat, syscallShmAt)
+	SYSCALLSTUB(shmdt, syscallShmDt)
+	SYSCALLSTUB(sleep, syscallSleep)
+	SYSCALLSTUB(gettime, syscallGetTime)
+	SYSCALLSTUB(poll, syscallPoll)
+	SYSCALLSTUB(getrusage, syscallGetRusage)
+	SYSCALLSTUB(getrlimit, syscallGetRlimit)
+	SYSCALLSTUB(setrlimit, syscallSetRlimit)
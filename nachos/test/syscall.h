@@ -25,6 +25,29 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallVMStat		13
+#define syscallDup		14
+#define syscallPipe		15
+#define syscallReadv		16
+#define syscallWritev		17
+#define syscallAioRead		18
+#define syscallAioWrite		19
+#define syscallAioWait		20
+#define syscallAioPoll		21
+#define syscallThreadCreate	22
+#define syscallThreadJoin	23
+#define syscallThreadExit	24
+#define syscallFutexWait	25
+#define syscallFutexWake	26
+#define syscallShmGet		27
+#define syscallShmAt		28
+#define syscallShmDt		29
+#define syscallSleep		30
+#define syscallGetTime		31
+#define syscallPoll		32
+#define syscallGetRusage	33
+#define syscallGetRlimit	34
+#define syscallSetRlimit	35
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -70,8 +93,11 @@ void exit(int status);
 /**
  * Execute the program stored in the specified file, with the specified
  * arguments, in a new child process. The child process has a new unique
- * process ID, and starts with stdin opened as file descriptor 0, and stdout
- * opened as file descriptor 1.
+ * process ID, and starts with file descriptors 0 and 1 referring to the same
+ * open files as the parent's descriptors 0 and 1, sharing their file
+ * positions, so a child's input and output follow a dup() or pipe() of its
+ * parent. A descriptor the parent has closed is opened on the console
+ * instead. No other descriptors are passed to the child.
  *
  * file is a null-terminated string that specifies the name of the file
  * containing the executable. Note that this string must include the ".coff"
@@ -105,6 +131,9 @@ int exec(char *file, int argc, char *argv[]);
  * If the child exited normally, returns 1. If the child exited as a result of
  * an unhandled exception, returns 0. If processID does not refer to a child
  * process of the current process, returns -1.
+ *
+ * If processID is -1, waits for whichever child exits first, and returns its
+ * process ID, or -1 if the current process has no children.
  */
 int join(int processID, int *status);
 
@@ -203,6 +232,226 @@ int close(int fileDescriptor);
  */
 int unlink(char *name);
 
+/**
+ * Return a new file descriptor that refers to the same open file as
+ * fileDescriptor. The new descriptor is the lowest one not in use, and shares
+ * the file position with the old one; the file stays open until both have
+ * been closed.
+ *
+ * Returns the new file descriptor, or -1 if fileDescriptor is invalid or the
+ * process has too many files open.
+ */
+int dup(int fileDescriptor);
+
+/**
+ * Create a pipe: a stream of bytes, buffered in the kernel, that is read
+ * through one file descriptor and written through another. The read
+ * descriptor is stored in fds[0] and the write descriptor in fds[1].
+ *
+ * read() on a pipe waits until some data is available and returns what is
+ * buffered, up to size bytes, or 0 once every write descriptor is closed.
+ * write() waits while the pipe is full, and fails once every read
+ * descriptor is closed. A process started by exec() shares the standard
+ * input and output descriptors of its parent, so a pipe can connect the
+ * output of one child to the input of another.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int pipe(int *fds);
+
+/* One buffer of a readv() or writev(). */
+struct iovec {
+    void *iov_base;
+    int iov_len;
+};
+
+/**
+ * Read from fileDescriptor into the iovcnt buffers described by iov, filling
+ * each in turn, as one read() of their total size would.
+ *
+ * Returns the number of bytes read, or -1 if an error occurred.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Write the iovcnt buffers described by iov to fileDescriptor, in order, as
+ * one write() of their concatenation would. This takes one system call and
+ * one file operation however many buffers there are.
+ *
+ * Returns the number of bytes written, or -1 if an error occurred.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Start reading up to count bytes from fileDescriptor into buffer, and return
+ * without waiting for the data. The buffer must not be touched until the
+ * request has completed. Requests on the same file descriptor are carried
+ * out in the order they were made.
+ *
+ * Returns an id to pass to aio_wait() and aio_poll(), or -1 if an error
+ * occurred, including when the kernel was not configured for asynchronous
+ * I/O or too many requests are outstanding.
+ */
+int aio_read(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Start writing count bytes from buffer to fileDescriptor, and return without
+ * waiting. Otherwise like aio_read().
+ */
+int aio_write(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Wait for the request id to complete, and release the id.
+ *
+ * Returns what read() or write() would have returned for the request, or -1
+ * if id is not an outstanding request.
+ */
+int aio_wait(int id);
+
+/**
+ * Check whether the request id has completed, without waiting. aio_wait()
+ * must still be called to collect the result.
+ *
+ * Returns 1 if the request has completed, 0 if it is still in progress, or
+ * -1 if id is not an outstanding request.
+ */
+int aio_poll(int id);
+
+/**
+ * Start a new thread in this process, running func(arg). The thread shares
+ * the process's memory and open files and has a stack of its own. func must
+ * end by calling thread_exit() or exit(); it must not return.
+ *
+ * A process may have at most UserProcess.maxThreads threads, counting the
+ * first; the default is 1, so nachos.conf must raise it for this to succeed.
+ *
+ * Returns the new thread's id, which is never 0, or -1 if an error occurs.
+ */
+int thread_create(void (*func)(int), int arg);
+
+/**
+ * Wait for the thread tid of this process to call thread_exit(), and store
+ * the status it passed in *status, unless status is 0. The first thread of
+ * the process has id 0. A thread can be joined once.
+ *
+ * Returns 0 on success, or -1 if tid is the caller, is not a thread of this
+ * process, or has already been joined.
+ */
+int thread_join(int tid, int *status);
+
+/**
+ * End the calling thread, leaving status for thread_join(). If it is the
+ * last thread of the process, the process exits with status, as if by
+ * exit(). exit() itself ends every thread of the process.
+ *
+ * Does not return.
+ */
+void thread_exit(int status);
+
+/**
+ * Sleep until another thread calls futex_wake() on addr, provided *addr
+ * still equals expected when the kernel checks it; otherwise return at once.
+ * This lets user-level synchronization sleep in the kernel only when it has
+ * to wait: a thread checks and updates the word in user space, and calls
+ * futex_wait() only if it finds it must wait, passing the value it saw so
+ * that a wake-up in between is not missed. Waits on the same word meet
+ * however the memory is mapped. If timeout is positive, give up after that
+ * many ticks. addr must be word aligned.
+ *
+ * Returns 0 if woken, 1 if *addr did not equal expected, 2 if the timeout
+ * expired, or -1 if an error occurred.
+ */
+int futex_wait(int *addr, int expected, int timeout);
+
+/**
+ * Wake at most count threads waiting on addr in futex_wait(), oldest first.
+ *
+ * Returns the number of threads woken, or -1 if an error occurred.
+ */
+int futex_wake(int *addr, int count);
+
+/**
+ * Put the calling thread to sleep for at least ticks ticks of simulated time,
+ * without using the CPU. Use this instead of a busy loop to wait.
+ *
+ * Returns 0, or -1 if ticks is negative.
+ */
+int sleep(int ticks);
+
+/**
+ * Returns the number of ticks since Nachos started, modulo 2^32.
+ */
+int gettime(void);
+
+/* Bits of pollfd.events and pollfd.revents. */
+#define POLLIN		0x1	/* a read would not wait */
+#define POLLOUT		0x4	/* a write would not wait */
+#define POLLNVAL	0x20	/* fd is not open; revents only */
+
+struct pollfd {
+    int fd;
+    short events;	/* what to wait for */
+    short revents;	/* what is ready, filled in by poll() */
+};
+
+/**
+ * Wait until one of the nfds descriptors in fds is ready for one of the
+ * events it asks for, or until timeout ticks have passed. A timeout of 0
+ * checks without waiting, and a negative timeout waits without a limit.
+ * Pipes and the console can make a reader or writer wait; other files are
+ * always ready.
+ *
+ * Returns the number of entries with a non-zero revents, 0 if the timeout
+ * expired, or -1 if an error occurred.
+ */
+int poll(struct pollfd *fds, int nfds, int timeout);
+
+/* RESOURCE LIMITS: getrusage(), getrlimit(), setrlimit() */
+
+/* Indices into the array filled in by getrusage(). */
+#define rusageUserTicks		0	/* ticks spent running user code */
+#define rusageKernelTicks	1	/* ticks spent in syscalls and faults */
+#define rusageFrames		2	/* pages in physical memory */
+#define rusageSwapPages		3	/* pages in swap */
+#define rusageFiles		4	/* open file descriptors */
+#define rusageChildren		5	/* children not yet joined */
+#define rusageNumFields		6
+
+/* Resources for getrlimit() and setrlimit(). */
+#define RLIMIT_FRAMES		0	/* pages in physical memory */
+#define RLIMIT_SWAP		1	/* pages in swap */
+#define RLIMIT_FILES		2	/* open file descriptors */
+#define RLIMIT_CHILDREN		3	/* children not yet joined */
+#define RLIM_INFINITY		(-1)
+
+/**
+ * Fill in the rusageNumFields ints at usage with the resources used by this
+ * process.
+ *
+ * Returns 0 on success, or -1 if usage is not a valid address.
+ */
+int getrusage(int *usage);
+
+/**
+ * Store the soft and hard limits on a resource in limits[0] and limits[1].
+ * RLIM_INFINITY means no limit.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int getrlimit(int resource, int *limits);
+
+/**
+ * Set the limits on a resource. The soft limit is enforced: a process at its
+ * frame limit replaces its own pages rather than taking more memory, one over
+ * its swap limit is killed, and open() or exec() fail at the file or child
+ * limits. The soft limit may be raised up to the hard limit, and the hard
+ * limit may be lowered but not raised. Children started by exec() inherit
+ * both limits.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int setrlimit(int resource, int soft, int hard);
+
 /**
  * Map the file referenced by fileDescriptor into memory at address. The file
  * may be as large as 0x7FFFFFFF bytes.
@@ -246,6 +495,68 @@ int connect(int host, int port);
  */
 int accept(int port);
 
+/* VIRTUAL MEMORY SYSCALLS: vmstat(), shmget(), shmat(), shmdt() */
+
+/* Indices into the array filled in by vmstat(). The first group counts
+ * events for the calling process since it started; the frame counts describe
+ * all of physical memory at the time of the call.
+ */
+#define vmstatMinorFaults	0	/* faults satisfied without I/O */
+#define vmstatCoffFaults	1	/* faults that read the executable */
+#define vmstatSwapFaults	2	/* faults that read swap */
+#define vmstatSwapIns		3	/* pages read back from swap */
+#define vmstatSwapOuts		4	/* dirty pages written to swap */
+#define vmstatEvictions		5	/* pages taken away by the clock */
+#define vmstatClockScans	6	/* frames passed over by the clock hand */
+#define vmstatResident		7	/* pages currently in memory */
+#define vmstatFramesFree	8
+#define vmstatFramesPinned	9
+#define vmstatFramesDirty	10
+#define vmstatFramesShared	11
+#define vmstatNumFields		12
+
+/**
+ * Copy the paging counters of the current process, and the current use of
+ * physical memory, into the array of vmstatNumFields ints at stats.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int vmstat(int *stats);
+
+/**
+ * Return the id of the shared memory segment named key, creating a segment of
+ * size bytes, rounded up to whole pages, if there is none. Key 0 always
+ * creates a new segment, whose id must be passed to the processes that are to
+ * share it. A new segment is zero-filled.
+ *
+ * Returns the segment id, or -1 if the existing segment is smaller than size,
+ * size is too large, or too many segments exist.
+ *
+ * A segment that is not attached is freed once every process that got it
+ * from shmget() has exited.
+ */
+int shmget(int key, int size);
+
+/**
+ * Map the segment id into the address space of the current process. Every
+ * process that attaches a segment sees the same memory: what one writes, the
+ * others read, with no copy made.
+ *
+ * Returns the address of the first byte of the segment, or -1 if an error
+ * occurred.
+ */
+void *shmat(int id);
+
+/**
+ * Unmap the segment attached at address by shmat(). The segment and its
+ * contents are freed when the last process attached to it detaches; exiting
+ * detaches every segment. Touching the address afterwards kills the process.
+ *
+ * Returns 0 on success, or -1 if no segment is attached at address, or a
+ * transfer into the segment is in progress.
+ */
+int shmdt(void *address);
+
 #endif /* START_S */
 
 #endif /* SYSCALL_H */
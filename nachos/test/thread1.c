@@ -0,0 +1,78 @@
+/*
+ * thread1.c
+ *
+ * Test thread_create(), thread_join() and thread_exit().  Then exec a copy
+ * of this program that leaves threads blocked in a pipe read and in
+ * thread_join() and calls exit() from another; the copy must still end,
+ * with the status exit() was given.  Needs UserProcess.maxThreads of at
+ * least 3 in nachos.conf.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+int fds[2], reader;
+char buf[16];
+
+void
+add (int n)
+{
+    thread_exit (n + 1);
+}
+
+void
+blockRead (int unused)
+{
+    read (fds[0], buf, sizeof (buf));	/* nothing is ever written */
+    thread_exit (0);
+}
+
+void
+blockJoin (int unused)
+{
+    thread_join (reader, 0);
+    thread_exit (0);
+}
+
+int
+main (int argc, char *argv[])
+{
+    char *args[2];
+    int tid, pid, status;
+
+    if (argc > 1) {
+	pipe (fds);
+	reader = thread_create (blockRead, 0);
+	thread_create (blockJoin, 0);
+	sleep (1000);
+	exit (7);
+    }
+
+    tid = thread_create (add, 41);
+    if (tid <= 0) {
+	printf ("...thread_create failed (tid = %d)\n", tid);
+	exit (-1);
+    }
+    status = 0;
+    if (thread_join (tid, &status) != 0 || status != 42) {
+	printf ("...thread_join failed (status = %d)\n", status);
+	exit (-1);
+    }
+    if (thread_join (tid, &status) != -1 || thread_join (0, &status) != -1) {
+	printf ("...joining twice or joining self did not fail\n");
+	exit (-1);
+    }
+    printf ("...create and join passed\n");
+
+    args[0] = "thread1.coff";
+    args[1] = "blocked";
+    pid = exec ("thread1.coff", 2, args);
+    if (pid <= 0 || join (pid, &status) != 1 || status != 7) {
+	printf ("...exit with blocked threads failed (status = %d)\n", status);
+	exit (-1);
+    }
+    printf ("...exit with blocked threads passed\n");
+
+    return 0;
+}
@@ -0,0 +1,67 @@
+/*
+ * time1.c
+ *
+ * Test sleep, gettime and poll.  A sleep lasts at least as long as asked,
+ * and poll reports which ends of a pipe are ready, times out when none
+ * is, and flags a descriptor that is not open.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+int
+main (int argc, char *argv[])
+{
+    struct pollfd fds[2];
+    int pipeFds[2], start, elapsed, n;
+
+    start = gettime ();
+    if (sleep (1000) != 0 || sleep (-1) != -1) {
+	printf ("...sleep failed\n");
+	exit (-1);
+    }
+    elapsed = gettime () - start;
+    if (elapsed < 1000) {
+	printf ("...sleep too short (%d ticks)\n", elapsed);
+	exit (-1);
+    }
+    printf ("...sleep and gettime passed\n");
+
+    pipe (pipeFds);
+    fds[0].fd = pipeFds[0];
+    fds[0].events = POLLIN;
+    fds[1].fd = pipeFds[1];
+    fds[1].events = POLLOUT;
+    n = poll (fds, 2, 0);
+    if (n != 1 || fds[0].revents != 0 || fds[1].revents != POLLOUT) {
+	printf ("...poll of an empty pipe failed (n = %d)\n", n);
+	exit (-1);
+    }
+
+    start = gettime ();
+    n = poll (fds, 1, 500);
+    elapsed = gettime () - start;
+    if (n != 0 || elapsed < 500) {
+	printf ("...poll timeout failed (n = %d, %d ticks)\n", n, elapsed);
+	exit (-1);
+    }
+
+    write (pipeFds[1], "x", 1);
+    n = poll (fds, 1, -1);
+    if (n != 1 || fds[0].revents != POLLIN) {
+	printf ("...poll of a pipe with data failed (n = %d)\n", n);
+	exit (-1);
+    }
+
+    close (pipeFds[1]);
+    fds[1].fd = pipeFds[1];
+    n = poll (fds + 1, 1, 0);
+    if (n != 1 || fds[1].revents != POLLNVAL) {
+	printf ("...poll of a closed descriptor failed (n = %d)\n", n);
+	exit (-1);
+    }
+    printf ("...poll passed\n");
+
+    return 0;
+}
@@ -0,0 +1,84 @@
+/*
+ * vector1.c
+ *
+ * Test readv and writev.  Three buffers gathered by writev land in the
+ * file back to back, and readv scatters the file over buffers of other
+ * sizes, filling each in turn.  A bad buffer is refused before the file
+ * is read.
+ */
+
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+char *name = "vector1.out";
+
+int
+main (int argc, char *argv[])
+{
+    struct iovec iov[3];
+    char a[4], b[6], c[8], whole[32];
+    int fd, n;
+
+    iov[0].iov_base = "one,";
+    iov[0].iov_len = 4;
+    iov[1].iov_base = "two,";
+    iov[1].iov_len = 4;
+    iov[2].iov_base = "three";
+    iov[2].iov_len = 5;
+
+    fd = creat (name);
+    n = writev (fd, iov, 3);
+    close (fd);
+    if (n != 13) {
+	printf ("...writev failed (n = %d)\n", n);
+	exit (-1);
+    }
+
+    fd = open (name);
+    n = read (fd, whole, sizeof (whole));
+    close (fd);
+    if (n != 13 || strncmp (whole, "one,two,three", 13) != 0) {
+	printf ("...writev contents failed (n = %d)\n", n);
+	exit (-1);
+    }
+    printf ("...writev passed\n");
+
+    iov[0].iov_base = a;
+    iov[0].iov_len = sizeof (a);
+    iov[1].iov_base = b;
+    iov[1].iov_len = sizeof (b);
+    iov[2].iov_base = c;
+    iov[2].iov_len = sizeof (c);
+
+    fd = open (name);
+    n = readv (fd, iov, 3);
+    close (fd);
+    if (n != 13 || strncmp (a, "one,", 4) != 0 || strncmp (b, "two,th", 6) != 0
+	|| strncmp (c, "ree", 3) != 0) {
+	printf ("...readv failed (n = %d)\n", n);
+	exit (-1);
+    }
+    printf ("...readv passed\n");
+
+    /* a negative length, or a buffer in the read-only code, is refused
+       without consuming any of the file */
+    fd = open (name);
+    iov[0].iov_len = -1;
+    n = readv (fd, iov, 1);
+    iov[0].iov_len = sizeof (a);
+    iov[1].iov_base = (void *) main;
+    if (n == -1)
+	n = readv (fd, iov, 2);
+    if (n == -1)
+	n = read (fd, whole, sizeof (whole));
+    close (fd);
+    unlink (name);
+    if (n != 13) {
+	printf ("...bad buffer failed (n = %d)\n", n);
+	exit (-1);
+    }
+    printf ("...bad buffer passed\n");
+
+    return 0;
+}
@@ -253,8 +253,10 @@ public class KThread {
 
 		Lib.assertTrue(Machine.interrupt().disabled());
 
-		if (currentThread.status != statusFinished)
+		if (currentThread.status != statusFinished) {
 			currentThread.status = statusBlocked;
+			currentThread.blocked();
+		}
 
 		runNextThread();
 	}
@@ -269,6 +271,9 @@ public class KThread {
 		Lib.assertTrue(Machine.interrupt().disabled());
 		Lib.assertTrue(status != statusReady);
 
+		if (status == statusBlocked)
+			unblocked();
+
 		status = statusReady;
 		if (this != idleThread)
 			readyQueue.waitForAccess(this);
@@ -403,6 +408,22 @@ public class KThread {
 		Lib.assertTrue(this == currentThread);
 	}
 
+	/**
+	 * Called with interrupts disabled when this thread blocks in
+	 * <tt>sleep()</tt>. Must not block. Kernel threads do not need to do
+	 * anything here.
+	 */
+	protected void blocked() {
+	}
+
+	/**
+	 * Called with interrupts disabled when this thread is woken up after
+	 * blocking, just before it is put on the ready queue. Must not block.
+	 * Kernel threads do not need to do anything here.
+	 */
+	protected void unblocked() {
+	}
+
 	private static class PingTest implements Runnable {
 		PingTest(int which) {
 			this.which = which;
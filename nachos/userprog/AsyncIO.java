@@ -0,0 +1,300 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A pool of kernel threads that carry out file reads and writes on behalf of
+ * user processes, so that a process can keep computing while its I/O waits
+ * on the file system. The user pages of a request are pinned when it is
+ * queued and stay pinned until it completes; the workers transfer straight
+ * between the file and those frames. A pipe or the console may keep a
+ * request waiting indefinitely, so requests on those go through a kernel
+ * buffer instead and pin nothing.
+ *
+ * <p>
+ * Requests on the same file are run one at a time, in the order they were
+ * queued, since they share the file position. Enabled by setting
+ * <tt>UserKernel.aioWorkers</tt> in <tt>nachos.conf</tt>.
+ */
+public class AsyncIO {
+	/**
+	 * Fork the worker threads.
+	 *
+	 * @param numWorkers the number of requests that may be in progress at
+	 *                   once.
+	 */
+	public static void startWorkers(int numWorkers) {
+		Lib.assertTrue(numWorkers > 0);
+		for (int i = 0; i < numWorkers; i++) {
+			KThread worker = new KThread(new Runnable() {
+				public void run() {
+					serveRequests();
+				}
+			});
+			worker.setName("aio worker " + i).fork();
+		}
+		started = true;
+	}
+
+	/**
+	 * Return <tt>true</tt> if the workers have been started.
+	 */
+	public static boolean isEnabled() {
+		return started;
+	}
+
+	/**
+	 * A queued or completed transfer. The frames to transfer are given as
+	 * one physical address and length per page, and are pinned by the
+	 * process that made the request.
+	 */
+	public static class Request {
+		/**
+		 * Allocate a new request.
+		 *
+		 * @param process the process whose pages are pinned.
+		 * @param file    the file to transfer to or from.
+		 * @param vpns    the pinned virtual pages.
+		 * @param paddrs  the physical address to start at in each page.
+		 * @param lengths the number of bytes to transfer in each page.
+		 * @param reading <tt>true</tt> to read the file into memory.
+		 */
+		public Request(UserProcess process, OpenFile file, int[] vpns,
+				int[] paddrs, int[] lengths, boolean reading) {
+			this.process = process;
+			this.file = file;
+			this.vpns = vpns;
+			this.paddrs = paddrs;
+			this.lengths = lengths;
+			this.reading = reading;
+		}
+
+		/**
+		 * Allocate a new request on a stream, which goes through a kernel
+		 * buffer.
+		 *
+		 * @param process the process that made the request.
+		 * @param file    the stream to transfer to or from.
+		 * @param vaddr   the user buffer.
+		 * @param buffer  the kernel buffer, holding the data if writing.
+		 * @param reading <tt>true</tt> to read the stream into memory.
+		 */
+		public Request(UserProcess process, OpenFile file, int vaddr,
+				byte[] buffer, boolean reading) {
+			this.process = process;
+			this.file = file;
+			this.vaddr = vaddr;
+			this.buffer = buffer;
+			this.reading = reading;
+		}
+
+		/**
+		 * Queue this request for a worker.
+		 */
+		public void submit() {
+			lock.acquire();
+			queue.add(this);
+			numRequests++;
+			requestReady.wake();
+			lock.release();
+		}
+
+		/**
+		 * Return <tt>true</tt> if this request has completed.
+		 */
+		public boolean isDone() {
+			lock.acquire();
+			boolean result = done;
+			lock.release();
+			return result;
+		}
+
+		/**
+		 * Wait for this request to complete.
+		 *
+		 * @return the number of bytes transferred, or -1 if the first
+		 *         transfer failed.
+		 */
+		public int await() {
+			lock.acquire();
+			if (!done)
+				numWaits++;
+			// a stream may never complete, so that wait is given up on exit
+			while (!done
+					&& !(buffer != null && UserKernel.currentProcessExiting()))
+				finished.sleep();
+			int value = done ? result : -1;
+			lock.release();
+			return value;
+		}
+
+		/**
+		 * Wake the threads waiting for this request, so that those of an
+		 * exiting process give up waiting for a stream.
+		 */
+		public void interruptWaiters() {
+			lock.acquire();
+			finished.wakeAll();
+			lock.release();
+		}
+
+		/**
+		 * Let go of this request because its process is exiting. A request
+		 * on pinned frames is waited for. A request on a stream no longer
+		 * touches the process's memory once this returns, and is left to
+		 * finish whenever the other end of the stream lets it.
+		 */
+		public void abandon() {
+			if (buffer == null) {
+				await();
+				return;
+			}
+
+			lock.acquire();
+			abandoned = true;
+			while (copying)
+				finished.sleep();
+			lock.release();
+		}
+
+		/**
+		 * Return the file this request transfers to or from.
+		 */
+		public OpenFile getFile() {
+			return file;
+		}
+
+		private void run() {
+			if (buffer != null) {
+				result = runStream();
+				return;
+			}
+
+			byte[] memory = Machine.processor().getMemory();
+			int total = 0;
+			for (int i = 0; i < paddrs.length; i++) {
+				int count = reading ? file.read(memory, paddrs[i], lengths[i])
+						: file.write(memory, paddrs[i], lengths[i]);
+				if (count == -1) {
+					if (total == 0)
+						total = -1;
+					break;
+				}
+				total += count;
+				if (count < lengths[i])
+					break;
+			}
+
+			for (int i = 0; i < vpns.length; i++)
+				process.unpinPage(vpns[i]);
+			result = total;
+		}
+
+		private int runStream() {
+			if (!reading)
+				return file.write(buffer, 0, buffer.length);
+
+			int count = file.read(buffer, 0, buffer.length);
+			if (count <= 0)
+				return count;
+
+			lock.acquire();
+			copying = !abandoned;
+			lock.release();
+			if (!copying)
+				return count;
+
+			int copied = process.writeVirtualMemory(vaddr, buffer, 0, count);
+			lock.acquire();
+			copying = false;
+			finished.wakeAll();
+			lock.release();
+			return (copied > 0) ? copied : -1;
+		}
+
+		private UserProcess process;
+
+		private OpenFile file;
+
+		private int[] vpns, paddrs, lengths;
+
+		/** The user buffer and the kernel buffer of a request on a stream. */
+		private int vaddr;
+
+		private byte[] buffer = null;
+
+		/** Whether the process has exited, and whether a worker is copying to it. */
+		private boolean abandoned = false, copying = false;
+
+		private boolean reading;
+
+		private boolean done = false;
+
+		private int result;
+
+		private Condition finished = new Condition(lock);
+	}
+
+	/**
+	 * Return a line describing the requests served.
+	 */
+	public static String getStats() {
+		return "requests " + numRequests + ", waits " + numWaits;
+	}
+
+	private static void serveRequests() {
+		lock.acquire();
+		while (true) {
+			Request request = nextRequest();
+			while (request == null) {
+				requestReady.sleep();
+				request = nextRequest();
+			}
+			busy.add(request.file);
+			lock.release();
+
+			request.run();
+
+			lock.acquire();
+			busy.remove(request.file);
+			request.done = true;
+			request.finished.wakeAll();
+			// a request on the same file may have been passed over
+			requestReady.wake();
+		}
+	}
+
+	/**
+	 * Remove and return the oldest queued request whose file no worker is
+	 * using, or <tt>null</tt> if there is none. The caller must hold
+	 * <tt>lock</tt>.
+	 */
+	private static Request nextRequest() {
+		for (Iterator<Request> i = queue.iterator(); i.hasNext();) {
+			Request request = i.next();
+			// the first request seen for a file is its oldest
+			if (!busy.contains(request.file)) {
+				i.remove();
+				return request;
+			}
+		}
+		return null;
+	}
+
+	private static boolean started = false;
+
+	private static Lock lock = new Lock();
+
+	private static Condition requestReady = new Condition(lock);
+
+	private static LinkedList<Request> queue = new LinkedList<Request>();
+
+	/** The files that workers are transferring to or from. */
+	private static LinkedList<OpenFile> busy = new LinkedList<OpenFile>();
+
+	private static int numRequests = 0, numWaits = 0;
+}
@@ -0,0 +1,428 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A file system that keeps recently used blocks of the files of another file
+ * system in kernel memory. Reads that hit the cache and all writes complete
+ * without touching the underlying file system; dirty blocks are written back
+ * when they are evicted, when the last open file on them is closed, and by
+ * <tt>flush()</tt>.
+ *
+ * <p>
+ * All opens of the same file share its cached blocks, so data written
+ * through one <tt>OpenFile</tt> is seen at once through the others.
+ *
+ * <p>
+ * One lock protects the cache, but it is not held while a block is read from
+ * or written to the underlying file system, so a miss does not hold up hits
+ * on other blocks. A block is busy during such a transfer, and anyone who
+ * wants it waits for the transfer to finish. Enabled by setting
+ * <tt>UserKernel.bufferCacheBlocks</tt> in <tt>nachos.conf</tt>.
+ */
+public class BufferCache implements FileSystem {
+	/**
+	 * Allocate a new buffer cache.
+	 *
+	 * @param fileSystem the file system to cache.
+	 * @param numBlocks  the number of blocks to keep in memory.
+	 * @param useClock   <tt>true</tt> to evict with the clock algorithm,
+	 *                   <tt>false</tt> for exact LRU.
+	 */
+	public BufferCache(FileSystem fileSystem, int numBlocks, boolean useClock) {
+		Lib.assertTrue(numBlocks > 0);
+		this.fileSystem = fileSystem;
+		this.numBlocks = numBlocks;
+		this.useClock = useClock;
+	}
+
+	/**
+	 * Return the file system that this cache sits in front of.
+	 */
+	public FileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	public OpenFile open(String name, boolean truncate) {
+		lock.acquire();
+		CachedFile file = files.get(name);
+
+		if (file == null || file.backing == null) {
+			OpenFile backing = fileSystem.open(name, truncate);
+			if (backing == null) {
+				lock.release();
+				return null;
+			}
+			if (file == null) {
+				file = new CachedFile(name);
+				files.put(name, file);
+			}
+			file.backing = backing;
+			file.length = backing.length();
+			if (truncate)
+				file.dropBlocks();
+		}
+		else if (truncate) {
+			// already open; truncate the real file too, then forget the blocks
+			OpenFile truncated = fileSystem.open(name, true);
+			if (truncated != null)
+				truncated.close();
+			file.dropBlocks();
+			file.length = 0;
+		}
+
+		file.openCount++;
+		lock.release();
+		return new CachedOpenFile(file);
+	}
+
+	public boolean remove(String name) {
+		lock.acquire();
+		CachedFile file = files.remove(name);
+		// an open file keeps its blocks until it is closed, as a removed
+		// file stays readable through its open descriptors
+		if (file != null && file.openCount == 0)
+			file.dropBlocks();
+		boolean removed = fileSystem.remove(name);
+		lock.release();
+		return removed;
+	}
+
+	public int getOpenCount() {
+		return fileSystem.getOpenCount();
+	}
+
+	/**
+	 * Write every dirty block back to the underlying file system.
+	 */
+	public void flush() {
+		lock.acquire();
+		for (Iterator<Block> i = blockList().iterator(); i.hasNext();)
+			i.next().flush();
+		lock.release();
+	}
+
+	public String toString() {
+		return "hits " + numHits + ", misses " + numMisses + ", write-backs "
+				+ numWriteBacks + ", evictions " + numEvictions + ", blocks "
+				+ numCached + "/" + numBlocks;
+	}
+
+	/**
+	 * Return the cached block of a file, reading it in if it is not cached.
+	 * The caller must hold <tt>lock</tt>, which is released while waiting for
+	 * a busy block and while reading, so the cache may have changed by the
+	 * time this returns. The block returned is not busy.
+	 *
+	 * @param fill <tt>false</tt> if the caller will overwrite the whole block,
+	 *             so that its old contents need not be read.
+	 */
+	private Block getBlock(CachedFile file, int number, boolean fill) {
+		Block block;
+		while (true) {
+			block = file.blocks.get(number);
+			if (block != null && block.busy) {
+				ioDone.sleep();
+				continue;
+			}
+			if (block != null) {
+				numHits++;
+				chargeHit();
+				if (useClock)
+					block.used = true;
+				else
+					lruOrder.get(block);
+				return block;
+			}
+			if (numCached < numBlocks)
+				break;
+			// may release the lock, so look for the block again
+			evict();
+		}
+
+		numMisses++;
+		block = new Block(file, number);
+		file.blocks.put(number, block);
+		numCached++;
+		if (useClock)
+			clockBlocks.add(block);
+		else
+			lruOrder.put(block, block);
+
+		int start = number * blockSize;
+		if (fill && start < file.length) {
+			int length = Math.min(blockSize, file.length - start);
+			block.busy = true;
+			lock.release();
+			file.backing.read(start, block.data, 0, length);
+			lock.acquire();
+			block.busy = false;
+			ioDone.wakeAll();
+		}
+		return block;
+	}
+
+	/**
+	 * Advance the simulated time by one kernel tick for copying a cached
+	 * block. A hit must not be free: <tt>Lib.strictReadFile()</tt> insists
+	 * that every read takes time.
+	 */
+	private void chargeHit() {
+		boolean intStatus = Machine.interrupt().disable();
+		Machine.interrupt().enable();
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Evict a block that is not busy, writing it back first if it is dirty.
+	 * Releases <tt>lock</tt> while writing, and returns without evicting
+	 * anything after waiting if every block is busy.
+	 */
+	private void evict() {
+		Block victim = null;
+		if (useClock) {
+			// two turns clear every used bit, so a third finds any idle block
+			for (int i = 0; i < 3 * clockBlocks.size() && victim == null; i++) {
+				if (clockHand >= clockBlocks.size())
+					clockHand = 0;
+				Block block = clockBlocks.get(clockHand);
+				if (block.busy)
+					clockHand++;
+				else if (block.used) {
+					block.used = false;
+					clockHand++;
+				}
+				else
+					victim = block;
+			}
+		}
+		else {
+			for (Iterator<Block> i = lruOrder.keySet().iterator(); i.hasNext()
+					&& victim == null;) {
+				Block block = i.next();
+				if (!block.busy)
+					victim = block;
+			}
+		}
+		if (victim == null) {
+			ioDone.sleep();
+			return;
+		}
+
+		// nobody can use the victim while it is busy being written
+		victim.flush();
+		victim.file.blocks.remove(victim.number);
+		forget(victim);
+		numEvictions++;
+	}
+
+	private void forget(Block block) {
+		if (useClock)
+			clockBlocks.remove(block);
+		else
+			lruOrder.remove(block);
+		numCached--;
+	}
+
+	private Iterable<Block> blockList() {
+		return useClock ? new ArrayList<Block>(clockBlocks)
+				: new ArrayList<Block>(lruOrder.keySet());
+	}
+
+	/**
+	 * The state shared by every open of one file.
+	 */
+	private class CachedFile {
+		CachedFile(String name) {
+			this.name = name;
+		}
+
+		/** Write back the dirty blocks of this file. */
+		void flush() {
+			ArrayList<Block> list = new ArrayList<Block>(blocks.values());
+			for (Iterator<Block> i = list.iterator(); i.hasNext();)
+				i.next().flush();
+		}
+
+		/**
+		 * Forget every block of this file, dirty or not, once none of them
+		 * is busy.
+		 */
+		void dropBlocks() {
+			for (boolean busy = true; busy;) {
+				busy = false;
+				for (Iterator<Block> i = blocks.values().iterator(); i.hasNext();)
+					busy |= i.next().busy;
+				if (busy)
+					ioDone.sleep();
+			}
+
+			for (Iterator<Block> i = blocks.values().iterator(); i.hasNext();) {
+				Block block = i.next();
+				block.dirty = false;
+				forget(block);
+			}
+			blocks.clear();
+		}
+
+		String name;
+
+		/** The underlying file, or <tt>null</tt> while nobody has it open. */
+		OpenFile backing = null;
+
+		int openCount = 0;
+
+		int length;
+
+		HashMap<Integer, Block> blocks = new HashMap<Integer, Block>();
+	}
+
+	private class Block {
+		Block(CachedFile file, int number) {
+			this.file = file;
+			this.number = number;
+		}
+
+		/**
+		 * Wait until this block is not busy, then write it back if it is
+		 * dirty. Releases <tt>lock</tt> while waiting and writing.
+		 */
+		void flush() {
+			while (busy)
+				ioDone.sleep();
+			if (!dirty)
+				return;
+
+			int start = number * blockSize;
+			int length = Math.min(blockSize, file.length - start);
+			dirty = false;
+			numWriteBacks++;
+			if (length > 0) {
+				busy = true;
+				lock.release();
+				file.backing.write(start, data, 0, length);
+				lock.acquire();
+				busy = false;
+				ioDone.wakeAll();
+			}
+		}
+
+		CachedFile file;
+
+		int number;
+
+		byte[] data = new byte[blockSize];
+
+		boolean dirty = false, used = true;
+
+		/** Whether the block is being read in or written back. */
+		boolean busy = false;
+	}
+
+	private class CachedOpenFile extends OpenFileWithPosition {
+		CachedOpenFile(CachedFile file) {
+			super(BufferCache.this, file.name);
+			this.file = file;
+		}
+
+		public int read(int pos, byte[] buf, int offset, int length) {
+			if (file == null || pos < 0 || length < 0)
+				return -1;
+
+			lock.acquire();
+			int amount = Math.max(0, Math.min(length, file.length - pos));
+			for (int done = 0; done < amount;) {
+				int number = (pos + done) / blockSize;
+				int blockOffset = (pos + done) % blockSize;
+				int count = Math.min(amount - done, blockSize - blockOffset);
+				Block block = getBlock(file, number, true);
+				System.arraycopy(block.data, blockOffset, buf, offset + done, count);
+				done += count;
+			}
+			lock.release();
+			return amount;
+		}
+
+		public int write(int pos, byte[] buf, int offset, int length) {
+			if (file == null || pos < 0 || length < 0)
+				return -1;
+
+			lock.acquire();
+			for (int done = 0; done < length;) {
+				int number = (pos + done) / blockSize;
+				int blockOffset = (pos + done) % blockSize;
+				int count = Math.min(length - done, blockSize - blockOffset);
+				Block block = getBlock(file, number, count < blockSize);
+				System.arraycopy(buf, offset + done, block.data, blockOffset, count);
+				block.dirty = true;
+				done += count;
+				file.length = Math.max(file.length, pos + done);
+			}
+			lock.release();
+			return length;
+		}
+
+		public int length() {
+			return (file == null) ? -1 : file.length;
+		}
+
+		public void close() {
+			if (file == null)
+				return;
+
+			lock.acquire();
+			if (--file.openCount == 0) {
+				file.flush();
+				// it may have been opened again while its blocks were written
+				if (file.openCount == 0) {
+					file.backing.close();
+					file.backing = null;
+					// a removed file cannot be opened again, so its blocks are dead
+					if (files.get(file.name) != file)
+						file.dropBlocks();
+				}
+			}
+			file = null;
+			lock.release();
+		}
+
+		private CachedFile file;
+	}
+
+	/** The size of a cached block. */
+	public static final int blockSize = Processor.pageSize;
+
+	private FileSystem fileSystem;
+
+	private int numBlocks;
+
+	private boolean useClock;
+
+	private int numCached = 0;
+
+	/** Files by name, including closed files that still have cached blocks. */
+	private HashMap<String, CachedFile> files = new HashMap<String, CachedFile>();
+
+	/** Cached blocks, least recently used first, when evicting by LRU. */
+	private LinkedHashMap<Block, Block> lruOrder = new LinkedHashMap<Block, Block>(
+			16, 0.75f, true);
+
+	/** Cached blocks and the clock hand, when evicting by CLOCK. */
+	private ArrayList<Block> clockBlocks = new ArrayList<Block>();
+
+	private int clockHand = 0;
+
+	private Lock lock = new Lock();
+
+	/** Signalled whenever a block stops being busy. */
+	private Condition ioDone = new Condition(lock);
+
+	private int numHits = 0, numMisses = 0, numWriteBacks = 0,
+			numEvictions = 0;
+}
@@ -0,0 +1,242 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.io.EOFException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of loaded executables, so that running the same program again does
+ * not reopen and reparse its COFF file. Every process running a program
+ * shares one <tt>Coff</tt>, which stays open while any of them runs and,
+ * after that, until it is evicted. Unused executables are evicted least
+ * recently used first.
+ *
+ * <p>
+ * Optionally the pages of each section are kept too, as they are first read,
+ * and later page faults on them are served from memory. The stub file system
+ * has no modification times, so an executable is dropped when it is created
+ * or unlinked through the kernel, and when its length is found to differ.
+ * Enabled by setting <tt>UserKernel.execCacheSize</tt> in
+ * <tt>nachos.conf</tt>.
+ */
+public class ExecutableCache {
+	/**
+	 * Allocate a new executable cache.
+	 *
+	 * @param numEntries   the number of unused executables to keep.
+	 * @param cachePages   <tt>true</tt> to keep the pages of sections too.
+	 */
+	public ExecutableCache(int numEntries, boolean cachePages) {
+		Lib.assertTrue(numEntries > 0);
+		this.numEntries = numEntries;
+		this.cachePages = cachePages;
+	}
+
+	/**
+	 * Return the loaded executable in a file, loading it if it is not cached.
+	 * The caller must pass it to <tt>release()</tt> instead of closing it.
+	 *
+	 * @param name the name of the file.
+	 * @return the executable, or <tt>null</tt> if the file cannot be opened
+	 *         or is not an executable.
+	 */
+	public Coff open(String name) {
+		OpenFile file = ThreadedKernel.fileSystem.open(name, false);
+		if (file == null) {
+			invalidate(name);
+			return null;
+		}
+
+		lock.acquire();
+		Entry entry = entries.get(name);
+		if (entry != null && entry.length != file.length()) {
+			drop(entry);
+			entry = null;
+		}
+
+		if (entry != null) {
+			file.close();
+			numHits++;
+		}
+		else {
+			int length = file.length();
+			Coff coff;
+			try {
+				coff = new Coff(file);
+			}
+			catch (EOFException e) {
+				file.close();
+				lock.release();
+				return null;
+			}
+			entry = new Entry(name, coff, length);
+			entries.put(name, entry);
+			byCoff.put(coff, entry);
+			numMisses++;
+		}
+
+		entry.users++;
+		evictUnused();
+		lock.release();
+		return entry.coff;
+	}
+
+	/**
+	 * Tell the cache that a process is done with an executable returned by
+	 * <tt>open()</tt>.
+	 *
+	 * @param coff the executable.
+	 */
+	public void release(Coff coff) {
+		lock.acquire();
+		Entry entry = byCoff.get(coff);
+		Lib.assertTrue(entry != null && entry.users > 0);
+		entry.users--;
+		if (entry.users == 0 && entry.dropped) {
+			byCoff.remove(coff);
+			coff.close();
+		}
+		evictUnused();
+		lock.release();
+	}
+
+	/**
+	 * Forget a cached executable, because the file has been replaced or
+	 * removed. Processes still running it keep their copy.
+	 *
+	 * @param name the name of the file.
+	 */
+	public void invalidate(String name) {
+		lock.acquire();
+		Entry entry = entries.get(name);
+		if (entry != null)
+			drop(entry);
+		lock.release();
+	}
+
+	/**
+	 * Load a page of a section of a cached executable into physical memory,
+	 * from the cached copy of the page if there is one.
+	 *
+	 * @param section the section, of an executable returned by
+	 *                <tt>open()</tt>.
+	 * @param spn     the page number within the section.
+	 * @param ppn     the physical page to load into.
+	 */
+	public void loadPage(CoffSection section, int spn, int ppn) {
+		byte[] memory = Machine.processor().getMemory();
+		int vpn = section.getFirstVPN() + spn;
+
+		lock.acquire();
+		Entry entry = byCoff.get(section.getCoff());
+		Lib.assertTrue(entry != null);
+		byte[] page = cachePages ? entry.pages.get(vpn) : null;
+		if (page != null) {
+			System.arraycopy(page, 0, memory, ppn * pageSize, pageSize);
+			numPageHits++;
+			lock.release();
+			return;
+		}
+		lock.release();
+
+		section.loadPage(spn, ppn);
+		if (cachePages) {
+			page = new byte[pageSize];
+			System.arraycopy(memory, ppn * pageSize, page, 0, pageSize);
+			lock.acquire();
+			entry.pages.put(vpn, page);
+			lock.release();
+		}
+	}
+
+	public String toString() {
+		return "hits " + numHits + ", misses " + numMisses + ", page hits "
+				+ numPageHits + ", cached " + entries.size();
+	}
+
+	/**
+	 * Remove an entry from the cache, closing it unless it is in use. The
+	 * caller must hold <tt>lock</tt>.
+	 */
+	private void drop(Entry entry) {
+		entries.remove(entry.name);
+		entry.dropped = true;
+		if (entry.users == 0) {
+			byCoff.remove(entry.coff);
+			entry.coff.close();
+		}
+	}
+
+	/**
+	 * Drop unused entries, least recently used first, until no more than
+	 * <tt>numEntries</tt> of them are left. The caller must hold
+	 * <tt>lock</tt>.
+	 */
+	private void evictUnused() {
+		int numUnused = 0;
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			if (i.next().users == 0)
+				numUnused++;
+		}
+
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext()
+				&& numUnused > numEntries;) {
+			Entry entry = i.next();
+			if (entry.users == 0) {
+				i.remove();
+				byCoff.remove(entry.coff);
+				entry.coff.close();
+				numUnused--;
+			}
+		}
+	}
+
+	private static class Entry {
+		Entry(String name, Coff coff, int length) {
+			this.name = name;
+			this.coff = coff;
+			this.length = length;
+		}
+
+		String name;
+
+		Coff coff;
+
+		/** The length of the file when it was loaded. */
+		int length;
+
+		/** The number of processes running this executable. */
+		int users = 0;
+
+		/** Whether this entry was removed from the cache while in use. */
+		boolean dropped = false;
+
+		/** Cached section pages, by virtual page number. */
+		HashMap<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
+	}
+
+	private int numEntries;
+
+	private boolean cachePages;
+
+	/** Executables by file name, least recently used first. */
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	/**
+	 * Every executable still open, by its loader, including those dropped
+	 * while in use.
+	 */
+	private IdentityHashMap<Coff, Entry> byCoff = new IdentityHashMap<Coff, Entry>();
+
+	private Lock lock = new Lock();
+
+	private int numHits = 0, numMisses = 0, numPageHits = 0;
+
+	private static final int pageSize = Processor.pageSize;
+}
@@ -0,0 +1,216 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * The file descriptor table of a process. Descriptors are small integers
+ * mapped to reference-counted open files, so that several descriptors made
+ * by <tt>dup()</tt> share one file and its position, and the file is closed
+ * when the last of them is.
+ *
+ * <p>
+ * The table grows as needed up to a limit, which may be changed while the
+ * table is in use. Free descriptors are tracked in a two-level bitmap: a
+ * bit per descriptor, and a summary bit per 64 descriptors that is set when
+ * all of them are in use. The lowest free descriptor is therefore found with
+ * two trailing-zero counts.
+ *
+ * <p>
+ * The threads of a process share its table. Only closing a file can block,
+ * so a descriptor is freed before its file is closed, and the table is
+ * consistent whenever another thread gets to run.
+ */
+public class FileTable {
+	/**
+	 * Allocate a new, empty descriptor table.
+	 *
+	 * @param maxFiles the largest number of descriptors that may be open at
+	 *                 once, at most <tt>maxLimit</tt>.
+	 */
+	public FileTable(int maxFiles) {
+		Lib.assertTrue(maxFiles > 0 && maxFiles <= maxLimit);
+		this.maxFiles = maxFiles;
+		files = new Entry[Math.min(maxFiles, initialSize)];
+		used = new long[(maxLimit + 63) / 64];
+	}
+
+	/**
+	 * Change the number of descriptors that may be open at once. Lowering it
+	 * below the number open closes nothing, but no more can be opened until
+	 * enough have been closed.
+	 *
+	 * @param maxFiles the new limit, at most <tt>maxLimit</tt>.
+	 */
+	public void setLimit(int maxFiles) {
+		Lib.assertTrue(maxFiles > 0 && maxFiles <= maxLimit);
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Return the number of open descriptors.
+	 */
+	public int getNumOpen() {
+		return numOpen;
+	}
+
+	/**
+	 * Give a file the lowest free descriptor.
+	 *
+	 * @param file the file.
+	 * @return the descriptor, or -1 if the table is full.
+	 */
+	public int add(OpenFile file) {
+		return add(new Entry(file));
+	}
+
+	/**
+	 * Return the file behind a descriptor.
+	 *
+	 * @param fd the descriptor.
+	 * @return the file, or <tt>null</tt> if <i>fd</i> is not open.
+	 */
+	public OpenFile get(int fd) {
+		if (fd < 0 || fd >= files.length || files[fd] == null)
+			return null;
+		return files[fd].file;
+	}
+
+	/**
+	 * Make the lowest free descriptor refer to the same file as another.
+	 *
+	 * @param fd the open descriptor to copy.
+	 * @return the new descriptor, or -1 if <i>fd</i> is not open or the table
+	 *         is full.
+	 */
+	public int dup(int fd) {
+		if (get(fd) == null)
+			return -1;
+		return add(files[fd]);
+	}
+
+	/**
+	 * Make a descriptor refer to the file that the same descriptor refers to
+	 * in another table, closing what it referred to before. This is how a
+	 * child process is handed its standard input and output.
+	 *
+	 * @param parent the table to copy from.
+	 * @param fd     the descriptor, which must be open in <i>parent</i>.
+	 */
+	public void inherit(FileTable parent, int fd) {
+		Lib.assertTrue(parent.get(fd) != null && fd < maxFiles);
+		close(fd);
+		install(fd, parent.files[fd]);
+	}
+
+	/**
+	 * Free a descriptor, closing its file if no other descriptor refers to
+	 * it.
+	 *
+	 * @param fd the descriptor.
+	 * @return <tt>true</tt> if <i>fd</i> was open.
+	 */
+	public boolean close(int fd) {
+		if (get(fd) == null)
+			return false;
+
+		Entry entry = files[fd];
+		files[fd] = null;
+		used[fd / 64] &= ~(1L << fd);
+		full &= ~(1L << (fd / 64));
+		numOpen--;
+		release(entry);
+		return true;
+	}
+
+	/**
+	 * Close every open descriptor.
+	 */
+	public void closeAll() {
+		for (int word = 0; word < used.length; word++) {
+			long bits = used[word];
+			used[word] = 0;
+			full &= ~(1L << word);
+			for (; bits != 0; bits &= bits - 1) {
+				int fd = word * 64 + Long.numberOfTrailingZeros(bits);
+				Entry entry = files[fd];
+				files[fd] = null;
+				numOpen--;
+				release(entry);
+			}
+		}
+	}
+
+	/**
+	 * Wake every thread waiting to read or write a pipe or the console
+	 * through this table, so that the threads of an exiting process leave.
+	 */
+	public void interruptWaiters() {
+		for (int fd = 0; fd < files.length; fd++) {
+			if (files[fd] != null && files[fd].file instanceof Pollable)
+				((Pollable) files[fd].file).interruptWaiters();
+		}
+	}
+
+	private int add(Entry entry) {
+		int word = Long.numberOfTrailingZeros(~full);
+		if (word >= used.length)
+			return -1;
+		int fd = word * 64 + Long.numberOfTrailingZeros(~used[word]);
+		if (fd >= maxFiles || numOpen >= maxFiles)
+			return -1;
+
+		install(fd, entry);
+		return fd;
+	}
+
+	private void install(int fd, Entry entry) {
+		if (fd >= files.length) {
+			int size = files.length;
+			while (size <= fd)
+				size *= 2;
+			Entry[] grown = new Entry[Math.min(maxLimit, size)];
+			System.arraycopy(files, 0, grown, 0, files.length);
+			files = grown;
+		}
+
+		files[fd] = entry;
+		entry.refCount++;
+		numOpen++;
+		used[fd / 64] |= 1L << fd;
+		if (used[fd / 64] == -1L)
+			full |= 1L << (fd / 64);
+	}
+
+	private void release(Entry entry) {
+		if (--entry.refCount == 0)
+			entry.file.close();
+	}
+
+	/** An open file and the number of descriptors referring to it. */
+	private static class Entry {
+		Entry(OpenFile file) {
+			this.file = file;
+		}
+
+		OpenFile file;
+
+		int refCount = 0;
+	}
+
+	/** The largest limit the summary bitmap can cover. */
+	public static final int maxLimit = 64 * 64;
+
+	private static final int initialSize = 16;
+
+	private int maxFiles;
+
+	private Entry[] files;
+
+	/** A bit per descriptor, set when it is in use. */
+	private long[] used;
+
+	/** A bit per word of <tt>used</tt>, set when the word is all ones. */
+	private long full = 0;
+
+	private int numOpen = 0;
+}
@@ -0,0 +1,193 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Kernel wait queues for user-level synchronization. A user thread that finds
+ * a lock word held sleeps here until another thread changes the word and
+ * wakes it, instead of spinning; an uncontended lock never enters the kernel.
+ *
+ * <p>
+ * Queues are keyed by the physical address of the word, so a wait and a
+ * wake meet whenever they name the same memory, whichever process or
+ * mapping they reach it through. A waiter keeps its page pinned so that the
+ * address cannot change while it sleeps; at most a quarter of physical
+ * memory may be pinned this way, as for asynchronous I/O.
+ */
+public class Futex {
+	/**
+	 * Sleep until the word at a physical address is woken, unless it no
+	 * longer holds the expected value. The check and the sleep are atomic
+	 * with respect to <tt>wake()</tt>. The caller must have pinned the page.
+	 *
+	 * @param process  the process of the current thread.
+	 * @param paddr    the physical address of the word.
+	 * @param expected the value the caller last saw in the word.
+	 * @param timeout  the most ticks to wait, or 0 or less for no limit.
+	 * @return <tt>woken</tt>, <tt>notExpected</tt> or <tt>timedOut</tt>, or
+	 *         -1 if too many pages are already being waited on.
+	 */
+	public static int wait(UserProcess process, int paddr, int expected,
+			long timeout) {
+		byte[] memory = Machine.processor().getMemory();
+		int page = paddr / pageSize;
+
+		boolean intStatus = Machine.interrupt().disable();
+		if (process.isExiting()
+				|| Lib.bytesToInt(memory, paddr) != expected) {
+			Machine.interrupt().restore(intStatus);
+			return notExpected;
+		}
+
+		Integer pageWaiters = waitersByPage.get(page);
+		if (pageWaiters == null && waitersByPage.size() >= maxPages) {
+			Machine.interrupt().restore(intStatus);
+			return -1;
+		}
+		waitersByPage.put(page, (pageWaiters == null) ? 1 : pageWaiters + 1);
+
+		Waiter waiter = new Waiter(process, paddr, timeout > 0);
+		LinkedList<Waiter> queue = queueOf(paddr);
+		queue.add(waiter);
+		numWaits++;
+
+		if (waiter.timed)
+			ThreadedKernel.alarm.waitUntil(timeout);
+		else
+			KThread.sleep();
+
+		if (!waiter.woken) {
+			queue.remove(waiter);
+			numTimeouts++;
+		}
+		pageWaiters = waitersByPage.get(page);
+		if (pageWaiters == 1)
+			waitersByPage.remove(page);
+		else
+			waitersByPage.put(page, pageWaiters - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return waiter.woken ? woken : timedOut;
+	}
+
+	/**
+	 * Wake threads waiting on the word at a physical address, oldest first.
+	 *
+	 * @param paddr the physical address of the word.
+	 * @param count the most threads to wake.
+	 * @return the number of threads woken.
+	 */
+	public static int wake(int paddr, int count) {
+		boolean intStatus = Machine.interrupt().disable();
+		int numWoken = 0;
+		for (Iterator<Waiter> i = queueOf(paddr).iterator(); i.hasNext()
+				&& numWoken < count;) {
+			Waiter waiter = i.next();
+			if (waiter.paddr == paddr) {
+				i.remove();
+				waiter.wake();
+				numWoken++;
+			}
+		}
+		numWakes += numWoken;
+		Machine.interrupt().restore(intStatus);
+		return numWoken;
+	}
+
+	/**
+	 * Wake every thread of a process that is waiting, so that it sees the
+	 * process is exiting.
+	 *
+	 * @param process the process.
+	 */
+	public static void wakeProcess(UserProcess process) {
+		boolean intStatus = Machine.interrupt().disable();
+		for (int q = 0; q < queues.length; q++) {
+			for (Iterator<Waiter> i = queues[q].iterator(); i.hasNext();) {
+				Waiter waiter = i.next();
+				if (waiter.process == process) {
+					i.remove();
+					waiter.wake();
+				}
+			}
+		}
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Return a summary of the waits so far.
+	 */
+	public static String getStats() {
+		return "waits " + numWaits + ", woken " + numWakes + ", timed out "
+				+ numTimeouts;
+	}
+
+	/**
+	 * Return <tt>true</tt> if any thread has waited.
+	 */
+	public static boolean wasUsed() {
+		return numWaits > 0;
+	}
+
+	private static LinkedList<Waiter> queueOf(int paddr) {
+		return queues[(paddr >>> 2) % queues.length];
+	}
+
+	private static class Waiter {
+		Waiter(UserProcess process, int paddr, boolean timed) {
+			this.thread = KThread.currentThread();
+			this.process = process;
+			this.paddr = paddr;
+			this.timed = timed;
+		}
+
+		/**
+		 * Make the thread ready. Interrupts must be disabled. A timed waiter
+		 * is readied by cancelling its alarm; if that has already gone off,
+		 * the thread is ready already and still counts as woken.
+		 */
+		void wake() {
+			woken = true;
+			if (!timed)
+				thread.ready();
+			else
+				ThreadedKernel.alarm.cancel(thread);
+		}
+
+		KThread thread;
+
+		UserProcess process;
+
+		int paddr;
+
+		boolean timed;
+
+		boolean woken = false;
+	}
+
+	/** Values returned by <tt>wait()</tt>. */
+	public static final int woken = 0, notExpected = 1, timedOut = 2;
+
+	private static final int pageSize = Processor.pageSize;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static LinkedList<Waiter>[] queues = new LinkedList[64];
+
+	static {
+		for (int i = 0; i < queues.length; i++)
+			queues[i] = new LinkedList<Waiter>();
+	}
+
+	/** The number of waiters on each physical page that has any. */
+	private static HashMap<Integer, Integer> waitersByPage = new HashMap<Integer, Integer>();
+
+	private static final int maxPages = Math.max(1, Machine.processor()
+			.getNumPhysPages() / 4);
+
+	private static int numWaits = 0, numWakes = 0, numTimeouts = 0;
+}
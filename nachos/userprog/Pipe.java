@@ -0,0 +1,157 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A one-way stream of bytes between processes, held in a bounded ring
+ * buffer in the kernel. A reader blocks until there is data or no writer is
+ * left, then takes everything that is buffered, up to what it asked for. A
+ * writer blocks while the buffer is full and fills as much of it as it can
+ * on every wakeup. Both ends can be polled.
+ */
+public class Pipe {
+	/**
+	 * Allocate a new pipe.
+	 *
+	 * @param capacity the number of bytes the pipe can buffer.
+	 */
+	public Pipe(int capacity) {
+		Lib.assertTrue(capacity > 0);
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * Return the <tt>OpenFile</tt> to read this pipe through.
+	 */
+	public OpenFile getReadEnd() {
+		return readEnd;
+	}
+
+	/**
+	 * Return the <tt>OpenFile</tt> to write this pipe through.
+	 */
+	public OpenFile getWriteEnd() {
+		return writeEnd;
+	}
+
+	private int read(byte[] buf, int offset, int length) {
+		if (length < 0)
+			return -1;
+
+		lock.acquire();
+		while (count == 0 && writerOpen && length > 0
+				&& !UserKernel.currentProcessExiting())
+			notEmpty.sleep();
+
+		int amount = Math.min(length, count);
+		int first = Math.min(amount, buffer.length - head);
+		System.arraycopy(buffer, head, buf, offset, first);
+		System.arraycopy(buffer, 0, buf, offset + first, amount - first);
+		head = (head + amount) % buffer.length;
+		count -= amount;
+
+		if (amount > 0) {
+			notFull.wakeAll();
+			Poller.wakeAll();
+		}
+		lock.release();
+		return amount;
+	}
+
+	private int write(byte[] buf, int offset, int length) {
+		if (length < 0)
+			return -1;
+
+		lock.acquire();
+		int done = 0;
+		while (done < length && readerOpen
+				&& !UserKernel.currentProcessExiting()) {
+			if (count == buffer.length) {
+				notFull.sleep();
+				continue;
+			}
+
+			int amount = Math.min(length - done, buffer.length - count);
+			int tail = (head + count) % buffer.length;
+			int first = Math.min(amount, buffer.length - tail);
+			System.arraycopy(buf, offset + done, buffer, tail, first);
+			System.arraycopy(buf, offset + done + first, buffer, 0, amount - first);
+			count += amount;
+			done += amount;
+			notEmpty.wakeAll();
+			Poller.wakeAll();
+		}
+		lock.release();
+
+		// writing to a pipe nobody can read is an error
+		return (done == 0 && length > 0) ? -1 : done;
+	}
+
+	private class End extends OpenFile implements Pollable {
+		End(boolean reading) {
+			super(null, "pipe");
+			this.reading = reading;
+		}
+
+		public int read(byte[] buf, int offset, int length) {
+			return (reading && !closed) ? Pipe.this.read(buf, offset, length) : -1;
+		}
+
+		public int write(byte[] buf, int offset, int length) {
+			return (!reading && !closed) ? Pipe.this.write(buf, offset, length) : -1;
+		}
+
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+
+			lock.acquire();
+			if (reading) {
+				readerOpen = false;
+				notFull.wakeAll();
+			}
+			else {
+				writerOpen = false;
+				notEmpty.wakeAll();
+			}
+			Poller.wakeAll();
+			lock.release();
+		}
+
+		public boolean isReadable() {
+			return reading && (closed || count > 0 || !writerOpen);
+		}
+
+		public boolean isWritable() {
+			return !reading && (closed || count < buffer.length || !readerOpen);
+		}
+
+		public void interruptWaiters() {
+			lock.acquire();
+			notEmpty.wakeAll();
+			notFull.wakeAll();
+			lock.release();
+		}
+
+		private boolean reading;
+
+		private boolean closed = false;
+	}
+
+	private OpenFile readEnd = new End(true), writeEnd = new End(false);
+
+	private byte[] buffer;
+
+	/** The buffered bytes are the <tt>count</tt> bytes from <tt>head</tt>. */
+	private int head = 0, count = 0;
+
+	private boolean readerOpen = true, writerOpen = true;
+
+	private Lock lock = new Lock();
+
+	private Condition notEmpty = new Condition(lock);
+
+	private Condition notFull = new Condition(lock);
+}
@@ -0,0 +1,29 @@
+package nachos.userprog;
+
+/**
+ * An open file whose reads or writes may have to wait, and that can tell
+ * whether they would, for <tt>poll()</tt>. Files that are not
+ * <tt>Pollable</tt> never make a reader or writer wait. An implementation
+ * must call <tt>Poller.wakeAll()</tt> whenever it may have become readable
+ * or writable.
+ */
+public interface Pollable {
+	/**
+	 * Return <tt>true</tt> if a read would return at once, with data or at
+	 * the end of the stream. Called with interrupts disabled; must not block.
+	 */
+	public boolean isReadable();
+
+	/**
+	 * Return <tt>true</tt> if a write would return at once, having written
+	 * something or failed. Called with interrupts disabled; must not block.
+	 */
+	public boolean isWritable();
+
+	/**
+	 * Wake every thread waiting in a read or write, so that those of an
+	 * exiting process can give up and leave it. The others wait again.
+	 * Called with interrupts enabled.
+	 */
+	public void interruptWaiters();
+}
@@ -0,0 +1,100 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Where user threads wait in <tt>poll()</tt> and <tt>sleep()</tt>. A waiter
+ * sleeps on <tt>ThreadedKernel.alarm</tt> if it has a timeout, so it takes no
+ * CPU while it waits. Pollers are woken whenever a <tt>Pollable</tt> file
+ * changes state and check their descriptors again; sleepers are woken only
+ * by their timeout, or when their process exits.
+ */
+public class Poller {
+	/**
+	 * Put the current thread to sleep until it is woken or its timeout
+	 * expires. Interrupts must be disabled, so that the caller's check of
+	 * whatever it is waiting for is atomic with going to sleep.
+	 *
+	 * @param process the process of the current thread.
+	 * @param timeout the most ticks to wait, or a negative number for no
+	 *                limit.
+	 * @param polling <tt>true</tt> to be woken by <tt>wakeAll()</tt>.
+	 */
+	public static void await(UserProcess process, long timeout, boolean polling) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Waiter waiter = new Waiter(process, timeout >= 0, polling);
+		waiters.add(waiter);
+		if (waiter.timed)
+			ThreadedKernel.alarm.waitUntil(timeout);
+		else
+			KThread.sleep();
+		waiters.remove(waiter);
+	}
+
+	/**
+	 * Wake every thread waiting in <tt>poll()</tt>. Called by
+	 * <tt>Pollable</tt> files, possibly from an interrupt handler.
+	 */
+	public static void wakeAll() {
+		boolean intStatus = Machine.interrupt().disable();
+		for (Iterator<Waiter> i = waiters.iterator(); i.hasNext();) {
+			Waiter waiter = i.next();
+			if (waiter.polling) {
+				i.remove();
+				waiter.wake();
+			}
+		}
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Wake every waiting thread of a process, so that it sees the process is
+	 * exiting.
+	 *
+	 * @param process the process.
+	 */
+	public static void wakeProcess(UserProcess process) {
+		boolean intStatus = Machine.interrupt().disable();
+		for (Iterator<Waiter> i = waiters.iterator(); i.hasNext();) {
+			Waiter waiter = i.next();
+			if (waiter.process == process) {
+				i.remove();
+				waiter.wake();
+			}
+		}
+		Machine.interrupt().restore(intStatus);
+	}
+
+	private static class Waiter {
+		Waiter(UserProcess process, boolean timed, boolean polling) {
+			this.thread = KThread.currentThread();
+			this.process = process;
+			this.timed = timed;
+			this.polling = polling;
+		}
+
+		/**
+		 * Make the thread ready. A timed waiter is readied by cancelling its
+		 * alarm, which does nothing if the alarm has already gone off.
+		 */
+		void wake() {
+			if (!timed)
+				thread.ready();
+			else
+				ThreadedKernel.alarm.cancel(thread);
+		}
+
+		KThread thread;
+
+		UserProcess process;
+
+		boolean timed, polling;
+	}
+
+	private static LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+}
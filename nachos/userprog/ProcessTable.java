@@ -0,0 +1,254 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The kernel's table of processes. It hands out process IDs, recycling those
+ * of reaped processes, records which process started which, and keeps the
+ * exit status of a process that has exited until its parent joins it. Such
+ * a zombie holds nothing but its status; the <tt>UserProcess</tt> itself is
+ * dropped as soon as it exits.
+ */
+public class ProcessTable {
+	/**
+	 * Allocate a new, empty process table.
+	 */
+	public ProcessTable() {
+	}
+
+	/**
+	 * Give a new process a process ID and enter it in the table.
+	 *
+	 * @param process the new process.
+	 * @param parent  the process that started it, or <tt>null</tt> for the
+	 *                first process.
+	 * @return the process ID.
+	 */
+	public int add(UserProcess process, UserProcess parent) {
+		lock.acquire();
+		int pid = freePids.isEmpty() ? nextPid++ : freePids.removeFirst();
+		Entry entry = new Entry(pid, process);
+		if (parent != null) {
+			entry.parent = entries.get(parent.currProcessID);
+			entry.parent.children.put(pid, entry);
+		}
+		entries.put(pid, entry);
+		process.currProcessID = pid;
+		numAlive++;
+		lock.release();
+		return pid;
+	}
+
+	/**
+	 * Remove a process that was added but could not be started.
+	 *
+	 * @param pid the process ID returned by <tt>add()</tt>.
+	 */
+	public void remove(int pid) {
+		lock.acquire();
+		Entry entry = entries.get(pid);
+		Lib.assertTrue(entry != null && entry.children.isEmpty());
+		if (entry.parent != null)
+			entry.parent.children.remove(pid);
+		release(entry);
+		numAlive--;
+		lock.release();
+	}
+
+	/**
+	 * Return the running process with a process ID.
+	 *
+	 * @param pid the process ID.
+	 * @return the process, or <tt>null</tt> if there is none.
+	 */
+	public UserProcess getProcess(int pid) {
+		lock.acquire();
+		Entry entry = entries.get(pid);
+		UserProcess process = (entry == null) ? null : entry.process;
+		lock.release();
+		return process;
+	}
+
+	/**
+	 * Return the number of children of a process that have not been joined,
+	 * whether or not they are still running.
+	 *
+	 * @param pid the process ID.
+	 * @return the number of children.
+	 */
+	public int getNumChildren(int pid) {
+		lock.acquire();
+		Entry entry = entries.get(pid);
+		int numChildren = (entry == null) ? 0 : entry.children.size();
+		lock.release();
+		return numChildren;
+	}
+
+	/**
+	 * Record that a process has exited. Its children lose their parent, and
+	 * those that have already exited are reaped. The process becomes a
+	 * zombie until its own parent joins it, or is reaped at once if it has
+	 * no parent.
+	 *
+	 * @param pid    the process ID of the exiting process.
+	 * @param status its exit status.
+	 * @return <tt>true</tt> if it was the last process running.
+	 */
+	public boolean exit(int pid, int status) {
+		lock.acquire();
+		Entry entry = entries.get(pid);
+		Lib.assertTrue(entry != null && !entry.zombie);
+
+		for (Iterator<Entry> i = entry.children.values().iterator(); i.hasNext();) {
+			Entry child = i.next();
+			child.parent = null;
+			if (child.zombie)
+				release(child);
+		}
+		entry.children.clear();
+		entry.zombies.clear();
+
+		entry.process = null;
+		entry.status = status;
+		entry.zombie = true;
+		if (entry.parent == null) {
+			release(entry);
+		}
+		else {
+			entry.parent.zombies.add(entry);
+			entry.parent.childExited.wakeAll();
+		}
+
+		boolean last = (--numAlive == 0);
+		lock.release();
+		return last;
+	}
+
+	/**
+	 * Wake the threads of a process that are waiting in <tt>join()</tt>, so
+	 * that they see the process is exiting.
+	 *
+	 * @param pid the process ID of the exiting process.
+	 */
+	public void interruptJoin(int pid) {
+		lock.acquire();
+		Entry entry = entries.get(pid);
+		if (entry != null)
+			entry.childExited.wakeAll();
+		lock.release();
+	}
+
+	/**
+	 * Wait for a child process to exit and reap it.
+	 *
+	 * @param parentPid the process ID of the caller.
+	 * @param pid       the child to wait for, or -1 for whichever child
+	 *                  exits first.
+	 * @return the process ID and exit status of the child, or <tt>null</tt>
+	 *         if there is no such child.
+	 */
+	public ExitStatus join(int parentPid, int pid) {
+		lock.acquire();
+		Entry parent = entries.get(parentPid);
+		Entry child;
+		while (true) {
+			if (pid == -1) {
+				if (parent.children.isEmpty()) {
+					child = null;
+					break;
+				}
+				child = parent.zombies.isEmpty() ? null : parent.zombies
+						.removeFirst();
+			}
+			else {
+				child = parent.children.get(pid);
+				if (child == null)
+					break;
+				if (!child.zombie)
+					child = null;
+				else
+					parent.zombies.remove(child);
+			}
+
+			if (child != null || UserKernel.currentProcessExiting())
+				break;
+			parent.childExited.sleep();
+		}
+
+		ExitStatus result = null;
+		if (child != null) {
+			result = new ExitStatus(child.pid, child.status);
+			parent.children.remove(child.pid);
+			release(child);
+		}
+		lock.release();
+		return result;
+	}
+
+	/**
+	 * The process ID and exit status of a reaped process.
+	 */
+	public static class ExitStatus {
+		ExitStatus(int pid, int status) {
+			this.pid = pid;
+			this.status = status;
+		}
+
+		public final int pid;
+
+		public final int status;
+	}
+
+	/**
+	 * Forget a process and let its process ID be reused. The caller must hold
+	 * <tt>lock</tt>.
+	 */
+	private void release(Entry entry) {
+		entries.remove(entry.pid);
+		// only the first process may halt the machine, so its ID is never
+		// given to another
+		if (entry.pid != 0)
+			freePids.add(entry.pid);
+	}
+
+	private class Entry {
+		Entry(int pid, UserProcess process) {
+			this.pid = pid;
+			this.process = process;
+		}
+
+		int pid;
+
+		/** The process, or <tt>null</tt> once it has exited. */
+		UserProcess process;
+
+		Entry parent = null;
+
+		HashMap<Integer, Entry> children = new HashMap<Integer, Entry>();
+
+		/** The children that have exited and not been joined, oldest first. */
+		LinkedList<Entry> zombies = new LinkedList<Entry>();
+
+		boolean zombie = false;
+
+		int status;
+
+		Condition childExited = new Condition(lock);
+	}
+
+	private HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+	/** Reaped process IDs, reused oldest first. */
+	private LinkedList<Integer> freePids = new LinkedList<Integer>();
+
+	private int nextPid = 0;
+
+	private int numAlive = 0;
+
+	private Lock lock = new Lock();
+}
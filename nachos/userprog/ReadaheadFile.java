@@ -0,0 +1,284 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * An open file that detects sequential reading and fetches ahead of the
+ * reader. Once a read starts where the previous one ended, the next window
+ * of the file is requested from the readahead thread, which reads it into a
+ * per-file buffer while the process carries on. A stream of small
+ * sequential reads is then mostly copied out of that buffer instead of each
+ * paying the file system's delay.
+ *
+ * <p>
+ * Every file name has a version that is bumped by each write through any
+ * <tt>ReadaheadFile</tt> and by <tt>invalidate()</tt>; a buffer filled under
+ * an older version is dropped before it is read from, so a reader never sees
+ * bytes that another descriptor or process has since overwritten.
+ *
+ * <p>
+ * Enabled by setting <tt>UserKernel.readaheadBytes</tt> in
+ * <tt>nachos.conf</tt> to the window size; <tt>UserKernel</tt> then calls
+ * <tt>startWorker()</tt> and files opened with <tt>open()</tt> are wrapped.
+ */
+public class ReadaheadFile extends OpenFileWithPosition {
+	/**
+	 * Wrap an open file.
+	 *
+	 * @param file the file to read ahead in.
+	 */
+	public ReadaheadFile(OpenFile file) {
+		super(file.getFileSystem(), file.getName());
+		this.file = file;
+
+		lock.acquire();
+		version = currentVersion(file.getName());
+		lock.release();
+	}
+
+	/**
+	 * Make every buffer of the named file stale, for when the file is
+	 * truncated or removed by other means than a <tt>ReadaheadFile</tt>.
+	 *
+	 * @param name the name of the file.
+	 */
+	public static void invalidate(String name) {
+		lock.acquire();
+		versions.put(name, currentVersion(name) + 1);
+		lock.release();
+	}
+
+	/**
+	 * Fork the thread that serves readahead requests.
+	 *
+	 * @param windowBytes the number of bytes to fetch per request.
+	 */
+	public static void startWorker(int windowBytes) {
+		Lib.assertTrue(windowBytes > 0);
+		window = windowBytes;
+		KThread worker = new KThread(new Runnable() {
+			public void run() {
+				serveRequests();
+			}
+		});
+		worker.setName("readahead").fork();
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+		if (file == null || pos < 0 || length < 0)
+			return -1;
+
+		lock.acquire();
+		checkVersion();
+		boolean sequential = (pos == nextSequential);
+		int done = 0;
+		while (done < length) {
+			int at = pos + done;
+			if (at >= bufferStart && at < bufferEnd()) {
+				int count = Math.min(length - done, bufferEnd() - at);
+				System.arraycopy(buffer, at - bufferStart, buf, offset + done, count);
+				done += count;
+				numBufferedBytes += count;
+			}
+			else if (pending && requestStart == bufferEnd() && at >= requestStart
+					&& at < requestStart + window) {
+				// the data is on its way
+				numWaits++;
+				fetched.sleep();
+			}
+			else {
+				lock.release();
+				int count = file.read(at, buf, offset + done, length - done);
+				lock.acquire();
+				if (count == -1 && done == 0) {
+					lock.release();
+					return -1;
+				}
+				if (count > 0) {
+					done += count;
+					// the file has grown since the buffer reached its end
+					eof = false;
+				}
+				break;
+			}
+		}
+		nextSequential = pos + done;
+
+		if (sequential && done > 0 && !pending && !eof
+				&& bufferEnd() - nextSequential < window / 2)
+			requestWindow();
+
+		lock.release();
+		return done;
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+		if (file == null)
+			return -1;
+
+		int count = file.write(pos, buf, offset, length);
+		invalidate(file.getName());
+		return count;
+	}
+
+	public int length() {
+		return (file == null) ? -1 : file.length();
+	}
+
+	public void close() {
+		if (file == null)
+			return;
+
+		lock.acquire();
+		// the worker may still be reading the file
+		while (pending)
+			fetched.sleep();
+		lock.release();
+
+		file.close();
+		file = null;
+		buffer = null;
+	}
+
+	/**
+	 * Return a line describing how much reading was done ahead.
+	 */
+	public static String getStats() {
+		return "requests " + numRequests + ", bytes fetched " + numFetchedBytes
+				+ ", bytes served " + numBufferedBytes + ", waits " + numWaits;
+	}
+
+	private static int currentVersion(String name) {
+		Integer version = versions.get(name);
+		return (version == null) ? 0 : version.intValue();
+	}
+
+	/**
+	 * Drop the buffer if the file has been written since it was filled. The
+	 * caller must hold <tt>lock</tt>.
+	 */
+	private void checkVersion() {
+		int current = currentVersion(file.getName());
+		if (version != current) {
+			dropBuffer();
+			version = current;
+		}
+	}
+
+	/**
+	 * Ask the worker for the window that follows what is buffered, or that
+	 * starts where the reader is if the buffer is behind it. The caller must
+	 * hold <tt>lock</tt>.
+	 */
+	private void requestWindow() {
+		if (nextSequential < bufferStart || nextSequential > bufferEnd()) {
+			bufferStart = nextSequential;
+			bufferLength = 0;
+		}
+		requestStart = bufferEnd();
+		requestVersion = version;
+		pending = true;
+		requests.add(this);
+		numRequests++;
+		requestReady.wake();
+	}
+
+	/**
+	 * Append the data read by the worker to the buffer, dropping what the
+	 * reader has already gone past. The caller must hold <tt>lock</tt>.
+	 */
+	private void completeRequest(byte[] data, int count) {
+		pending = false;
+		fetched.wakeAll();
+		checkVersion();
+		if (requestStart != bufferEnd() || requestVersion != version)
+			return;
+		if (count <= 0) {
+			eof = (count == 0);
+			return;
+		}
+
+		int keepFrom = Math.max(bufferStart, Math.min(nextSequential, bufferEnd()));
+		int keep = bufferEnd() - keepFrom;
+		byte[] newBuffer = new byte[keep + count];
+		System.arraycopy(buffer, keepFrom - bufferStart, newBuffer, 0, keep);
+		System.arraycopy(data, 0, newBuffer, keep, count);
+		buffer = newBuffer;
+		bufferStart = keepFrom;
+		bufferLength = keep + count;
+		eof = (count < window);
+		numFetchedBytes += count;
+	}
+
+	private void dropBuffer() {
+		bufferLength = 0;
+		eof = false;
+		// a fetch in flight may now be stale; make it miss the buffer
+		requestStart = -1;
+	}
+
+	private int bufferEnd() {
+		return bufferStart + bufferLength;
+	}
+
+	private static void serveRequests() {
+		lock.acquire();
+		while (true) {
+			while (requests.isEmpty())
+				requestReady.sleep();
+			ReadaheadFile request = requests.removeFirst();
+			int start = request.requestStart;
+			lock.release();
+
+			byte[] data = new byte[window];
+			int count = request.file.read(start, data, 0, window);
+
+			lock.acquire();
+			request.completeRequest(data, count);
+		}
+	}
+
+	private OpenFile file;
+
+	/**
+	 * The buffered part of the file: <tt>bufferLength</tt> bytes from
+	 * <tt>bufferStart</tt>.
+	 */
+	private byte[] buffer = new byte[0];
+
+	private int bufferStart = 0, bufferLength = 0;
+
+	/** Where a read must start to count as sequential. */
+	private int nextSequential = 0;
+
+	/** Whether a window starting at <tt>requestStart</tt> is being fetched. */
+	private boolean pending = false;
+
+	private int requestStart;
+
+	/** The version of the file the buffer and the request were read under. */
+	private int version, requestVersion;
+
+	/** Whether the buffer reaches the end of the file. */
+	private boolean eof = false;
+
+	private static int window;
+
+	private static Lock lock = new Lock();
+
+	private Condition fetched = new Condition(lock);
+
+	private static Condition requestReady = new Condition(lock);
+
+	/** Write counts by file name; names never written are at version 0. */
+	private static HashMap<String, Integer> versions = new HashMap<String, Integer>();
+
+	private static LinkedList<ReadaheadFile> requests = new LinkedList<ReadaheadFile>();
+
+	private static int numRequests = 0, numFetchedBytes = 0,
+			numBufferedBytes = 0, numWaits = 0;
+}
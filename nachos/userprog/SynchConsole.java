@@ -7,6 +7,23 @@ import nachos.userprog.*;
 /**
  * Provides a simple, synchronized interface to the machine's console. The
  * interface can also be accessed through <tt>OpenFile</tt> objects.
+ *
+ * <p>
+ * Output is queued in a ring buffer and sent a byte per send interrupt by
+ * the interrupt handler itself, so writers do not wait for the console. The
+ * buffer starts draining when a newline is queued, when it fills, and before
+ * the console is read; <tt>flush()</tt> waits for it to empty. Its size is
+ * <tt>SynchConsole.outputBufferSize</tt> in <tt>nachos.conf</tt>.
+ *
+ * <p>
+ * Input is taken from the console by the receive interrupt handler as it
+ * arrives and kept in an input buffer of
+ * <tt>SynchConsole.inputBufferSize</tt> bytes, so that a read can return
+ * everything typed since the last one. If <tt>SynchConsole.cookedInput</tt>
+ * is set, input is also edited a line at a time: typed characters are
+ * echoed, backspace erases the last one, and nothing can be read until the
+ * line is ended with a newline. It is off by default because the line
+ * editor in <tt>test/readline.c</tt> does its own echoing.
  */
 public class SynchConsole {
 	/**
@@ -16,6 +33,11 @@ public class SynchConsole {
 	 */
 	public SynchConsole(SerialConsole console) {
 		this.console = console;
+		outBuffer = new byte[Math.max(1, Config.getInteger(
+				"SynchConsole.outputBufferSize", 256))];
+		inBuffer = new byte[Math.max(2, Config.getInteger(
+				"SynchConsole.inputBufferSize", 256))];
+		cooked = Config.getBoolean("SynchConsole.cookedInput", false);
 
 		Runnable receiveHandler = new Runnable() {
 			public void run() {
@@ -41,24 +63,47 @@ public class SynchConsole {
 	 * and no byte was available.
 	 */
 	public int readByte(boolean block) {
-		int value;
-		boolean intStatus = Machine.interrupt().disable();
-		readLock.acquire();
+		byte[] buf = new byte[1];
+		if (read(buf, 0, 1, block) == 0)
+			return -1;
+		return buf[0] & 0xFF;
+	}
 
-		if (block || charAvailable) {
-			charAvailable = false;
-			readWait.P();
+	/**
+	 * Read the bytes that have been received, up to <i>length</i> of them.
+	 * With cooked input, a read stops at the end of a line.
+	 * 
+	 * @param buf    the buffer to store the bytes in.
+	 * @param offset the offset in <i>buf</i> to store the first byte at.
+	 * @param length the most bytes to read.
+	 * @param block  <tt>true</tt> to wait for a byte if none is available.
+	 * @return the number of bytes read.
+	 */
+	public int read(byte[] buf, int offset, int length, boolean block) {
+		if (length <= 0)
+			return 0;
 
-			value = console.readByte();
-			Lib.assertTrue(value != -1);
+		// with interrupts disabled, nothing can take the input between the
+		// check and the copy
+		boolean intStatus = Machine.interrupt().disable();
+		while (block && inCommitted == 0 && !UserKernel.currentProcessExiting()) {
+			numReadWaiters++;
+			readWait.P();
 		}
-		else {
-			value = -1;
+
+		int amount = 0;
+		while (amount < length && inCommitted > 0) {
+			byte value = inBuffer[inHead];
+			buf[offset + amount++] = value;
+			inHead = (inHead + 1) % inBuffer.length;
+			inCount--;
+			inCommitted--;
+			if (cooked && value == '\n')
+				break;
 		}
 
-		readLock.release();
 		Machine.interrupt().restore(intStatus);
-		return value;
+		return amount;
 	}
 
 	/**
@@ -71,22 +116,134 @@ public class SynchConsole {
 	}
 
 	private void receiveInterrupt() {
-		charAvailable = true;
-		readWait.V();
+		int value = console.readByte();
+		if (value == -1)
+			return;
+
+		if (!cooked) {
+			if (inCount < inBuffer.length)
+				receive(value);
+			inCommitted = inCount;
+		}
+		else if (value == '\b' || value == 0x7F) {
+			if (inCount > inCommitted) {
+				inCount--;
+				echo('\b');
+				echo(' ');
+				echo('\b');
+			}
+		}
+		else if (value == '\n') {
+			if (inCount < inBuffer.length)
+				receive(value);
+			inCommitted = inCount;
+			echo(value);
+		}
+		else if (inCount < inBuffer.length - 1) {
+			// the last slot is kept for the newline that ends the line
+			receive(value);
+			echo(value);
+		}
+
+		if (inCommitted > 0) {
+			wakeReaders();
+			Poller.wakeAll();
+		}
+	}
+
+	/**
+	 * Wake every thread waiting for input. Those that find none wait again.
+	 * Interrupts must be disabled.
+	 */
+	private void wakeReaders() {
+		for (; numReadWaiters > 0; numReadWaiters--)
+			readWait.V();
+	}
+
+	private void receive(int value) {
+		inBuffer[(inHead + inCount) % inBuffer.length] = (byte) value;
+		inCount++;
 	}
 
 	/**
-	 * Send a byte. Blocks until the send is complete.
+	 * Send a byte typed in cooked mode back to the console. Called by the
+	 * interrupt handler, so it cannot wait for buffer space: the echo is lost
+	 * if the output buffer is full.
+	 */
+	private void echo(int value) {
+		if (outCount < outBuffer.length) {
+			outBuffer[(outHead + outCount) % outBuffer.length] = (byte) value;
+			outCount++;
+		}
+		startSending();
+	}
+
+	/**
+	 * Send a byte. Queues it behind any earlier output and starts sending
+	 * without waiting for the send to complete.
 	 * 
 	 * @param value the byte to be sent (the upper 24 bits are ignored).
 	 */
 	public void writeByte(int value) {
+		write(new byte[] { (byte) value }, 0, 1);
+		boolean intStatus = Machine.interrupt().disable();
+		startSending();
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Queue bytes to be sent. Returns once they are all in the output
+	 * buffer, which only waits if the buffer fills.
+	 * 
+	 * @param buf    the bytes to send.
+	 * @param offset the offset of the first byte in <i>buf</i>.
+	 * @param length the number of bytes to send.
+	 */
+	public void write(byte[] buf, int offset, int length) {
 		writeLock.acquire();
-		console.writeByte(value);
-		writeWait.P();
+		boolean intStatus = Machine.interrupt().disable();
+
+		boolean newline = false;
+		int done = 0;
+		while (done < length) {
+			if (outCount == outBuffer.length) {
+				startSending();
+				spaceWanted = true;
+				spaceWait.P();
+				continue;
+			}
+
+			int amount = Math.min(length - done, outBuffer.length - outCount);
+			int tail = (outHead + outCount) % outBuffer.length;
+			int first = Math.min(amount, outBuffer.length - tail);
+			System.arraycopy(buf, offset + done, outBuffer, tail, first);
+			System.arraycopy(buf, offset + done + first, outBuffer, 0, amount - first);
+			for (int i = 0; i < amount && !newline; i++)
+				newline = (buf[offset + done + i] == '\n');
+			outCount += amount;
+			done += amount;
+		}
+
+		if (newline || outCount == outBuffer.length)
+			startSending();
+
+		Machine.interrupt().restore(intStatus);
 		writeLock.release();
 	}
 
+	/**
+	 * Send everything that has been queued, and wait until it has been sent.
+	 */
+	public void flush() {
+		boolean intStatus = Machine.interrupt().disable();
+		startSending();
+		while (sending) {
+			numDrainWaiters++;
+			drainWait.P();
+		}
+		Machine.interrupt().restore(intStatus);
+	}
+
 	/**
 	 * Return an <tt>OpenFile</tt> that can be used to write this as a file.
 	 * 
@@ -96,23 +253,78 @@ public class SynchConsole {
 		return new File(false, true);
 	}
 
-	private void sendInterrupt() {
-		writeWait.V();
+	/**
+	 * Send the first queued byte, if the console is idle. Interrupts must be
+	 * disabled.
+	 */
+	private void startSending() {
+		if (!sending && outCount > 0) {
+			sending = true;
+			sendNext();
+		}
 	}
 
-	private boolean charAvailable = false;
+	private void sendNext() {
+		console.writeByte(outBuffer[outHead]);
+		outHead = (outHead + 1) % outBuffer.length;
+		outCount--;
+	}
 
-	private SerialConsole console;
+	private void sendInterrupt() {
+		if (outCount > 0) {
+			boolean wasFull = (outCount == outBuffer.length);
+			sendNext();
+			if (wasFull)
+				Poller.wakeAll();
+		}
+		else {
+			sending = false;
+			for (; numDrainWaiters > 0; numDrainWaiters--)
+				drainWait.V();
+		}
 
-	private Lock readLock = new Lock();
+		if (spaceWanted) {
+			spaceWanted = false;
+			spaceWait.V();
+		}
+	}
+
+	private SerialConsole console;
 
 	private Lock writeLock = new Lock();
 
 	private Semaphore readWait = new Semaphore(0);
 
-	private Semaphore writeWait = new Semaphore(0);
+	private int numReadWaiters = 0;
 
-	private class File extends OpenFile {
+	/**
+	 * Received input: <tt>inCount</tt> bytes starting at <tt>inHead</tt>, of
+	 * which the first <tt>inCommitted</tt> can be read. The rest is the line
+	 * being edited.
+	 */
+	private byte[] inBuffer;
+
+	private int inHead = 0, inCount = 0, inCommitted = 0;
+
+	private boolean cooked;
+
+	/** Queued output: <tt>outCount</tt> bytes starting at <tt>outHead</tt>. */
+	private byte[] outBuffer;
+
+	private int outHead = 0, outCount = 0;
+
+	/** Whether a byte is being sent. */
+	private boolean sending = false;
+
+	private boolean spaceWanted = false;
+
+	private Semaphore spaceWait = new Semaphore(0);
+
+	private int numDrainWaiters = 0;
+
+	private Semaphore drainWait = new Semaphore(0);
+
+	private class File extends OpenFile implements Pollable {
 		File(boolean canRead, boolean canWrite) {
 			super(null, "SynchConsole");
 
@@ -121,6 +333,11 @@ public class SynchConsole {
 		}
 
 		public void close() {
+			if (canWrite) {
+				boolean intStatus = Machine.interrupt().disable();
+				startSending();
+				Machine.interrupt().restore(intStatus);
+			}
 			canRead = canWrite = false;
 		}
 
@@ -128,28 +345,36 @@ public class SynchConsole {
 			if (!canRead)
 				return 0;
 
-			int i;
-			for (i = 0; i < length; i++) {
-				int value = SynchConsole.this.readByte(false);
-				if (value == -1)
-					break;
-
-				buf[offset + i] = (byte) value;
-			}
+			// let a prompt without a newline be seen before waiting for input
+			boolean intStatus = Machine.interrupt().disable();
+			startSending();
+			Machine.interrupt().restore(intStatus);
 
-			return i;
+			return SynchConsole.this.read(buf, offset, length, true);
 		}
 
 		public int write(byte[] buf, int offset, int length) {
 			if (!canWrite)
 				return 0;
 
-			for (int i = 0; i < length; i++)
-				SynchConsole.this.writeByte(buf[offset + i]);
-
+			SynchConsole.this.write(buf, offset, length);
 			return length;
 		}
 
+		public boolean isReadable() {
+			return !canRead || inCommitted > 0;
+		}
+
+		public boolean isWritable() {
+			return !canWrite || outCount < outBuffer.length;
+		}
+
+		public void interruptWaiters() {
+			boolean intStatus = Machine.interrupt().disable();
+			wakeReaders();
+			Machine.interrupt().restore(intStatus);
+		}
+
 		private boolean canRead, canWrite;
 	}
 }
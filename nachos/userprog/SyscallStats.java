@@ -0,0 +1,184 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Counts the system calls made by one process: for each syscall, the number
+ * of calls, how many failed, the bytes moved by those that transfer data, and
+ * a histogram of how many ticks the calls took. The histogram has a bucket
+ * per tick up to 16 and then eight buckets per power of two, so percentiles
+ * are within an eighth of the true value at any scale.
+ *
+ * <p>
+ * Enabled by setting <tt>UserKernel.syscallStats</tt> in
+ * <tt>nachos.conf</tt>; the counts of every process are printed at halt. If
+ * <tt>UserKernel.syscallTrace</tt> names a host file, every call is also
+ * written to it as a line of JSON.
+ */
+public class SyscallStats {
+	/**
+	 * Turn counting on, and tracing if <i>traceFileName</i> is not
+	 * <tt>null</tt>.
+	 */
+	public static void enable(String traceFileName) {
+		enabled = true;
+		if (traceFileName != null) {
+			try {
+				trace = new PrintStream(new FileOutputStream(traceFileName), false);
+			}
+			catch (IOException e) {
+				Lib.debug(dbgSyscall, "could not open trace file " + traceFileName);
+			}
+		}
+	}
+
+	/**
+	 * Return <tt>true</tt> if system calls are being counted.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Allocate the counts for a process.
+	 *
+	 * @param pid the process ID.
+	 */
+	public SyscallStats(int pid) {
+		this.pid = pid;
+		all.add(this);
+	}
+
+	/**
+	 * Count a completed system call.
+	 *
+	 * @param syscall the syscall number.
+	 * @param args    the four syscall arguments.
+	 * @param start   the time the call was made.
+	 * @param result  the value returned to the user.
+	 */
+	public void record(int syscall, int[] args, long start, int result) {
+		long ticks = Machine.timer().getTime() - start;
+		if (syscall < 0 || syscall >= numSyscalls)
+			syscall = numSyscalls;
+
+		calls[syscall]++;
+		if (result < 0)
+			errors[syscall]++;
+		else if (movesBytes(syscall))
+			bytes[syscall] += result;
+		if (histograms[syscall] == null)
+			histograms[syscall] = new long[numBuckets];
+		histograms[syscall][bucket(ticks)]++;
+
+		if (trace != null) {
+			trace.println("{\"tick\":" + start + ",\"pid\":" + pid
+					+ ",\"syscall\":\"" + names[syscall] + "\",\"args\":["
+					+ args[0] + "," + args[1] + "," + args[2] + "," + args[3]
+					+ "],\"result\":" + result + ",\"ticks\":" + ticks + "}");
+		}
+	}
+
+	/**
+	 * Print the counts of every process, then close the trace.
+	 */
+	public static void printAll() {
+		for (int i = 0; i < all.size(); i++)
+			all.get(i).print();
+		if (trace != null)
+			trace.close();
+	}
+
+	private void print() {
+		System.out.println("Syscalls (pid " + pid + "):");
+		for (int s = 0; s <= numSyscalls; s++) {
+			if (calls[s] == 0)
+				continue;
+			String line = "  " + names[s] + ": calls " + calls[s] + ", errors "
+					+ errors[s];
+			if (movesBytes(s))
+				line += ", bytes " + bytes[s];
+			line += ", ticks p50 " + percentile(histograms[s], calls[s], 50)
+					+ " p99 " + percentile(histograms[s], calls[s], 99)
+					+ " max " + percentile(histograms[s], calls[s], 100);
+			System.out.println(line);
+		}
+	}
+
+	private static boolean movesBytes(int syscall) {
+		switch (syscall) {
+			case 6: // read
+			case 7: // write
+			case 16: // readv
+			case 17: // writev
+			case 20: // aio_wait
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Return the histogram bucket of a latency: the value itself below 16,
+	 * and above that the power of two it falls in and which eighth of it.
+	 */
+	private static int bucket(long ticks) {
+		if (ticks < 16)
+			return (int) Math.max(ticks, 0);
+		int magnitude = 63 - Long.numberOfLeadingZeros(ticks);
+		int eighth = (int) (ticks >> (magnitude - 3)) & 7;
+		return 16 + (magnitude - 4) * 8 + eighth;
+	}
+
+	/** Return the smallest latency that falls in a bucket. */
+	private static long bucketStart(int bucket) {
+		if (bucket < 16)
+			return bucket;
+		int magnitude = (bucket - 16) / 8 + 4;
+		return (8L + (bucket - 16) % 8) << (magnitude - 3);
+	}
+
+	private static long percentile(long[] histogram, long count, int percent) {
+		long rank = Math.max(1, (count * percent + 99) / 100);
+		long seen = 0;
+		for (int b = 0; b < histogram.length; b++) {
+			seen += histogram[b];
+			if (seen >= rank)
+				return bucketStart(b);
+		}
+		return bucketStart(histogram.length - 1);
+	}
+
+	private int pid;
+
+	/** Indexed by syscall number; the last entry counts unknown syscalls. */
+	private long[] calls = new long[numSyscalls + 1],
+			errors = new long[numSyscalls + 1], bytes = new long[numSyscalls + 1];
+
+	private long[][] histograms = new long[numSyscalls + 1][];
+
+	private static final String[] names = { "halt", "exit", "exec", "join",
+			"creat", "open", "read", "write", "close", "unlink", "mmap",
+			"connect", "accept", "vmstat", "dup", "pipe", "readv", "writev",
+			"aio_read", "aio_write", "aio_wait", "aio_poll", "thread_create",
+			"thread_join", "thread_exit", "futex_wait", "futex_wake", "shmget",
+			"shmat", "shmdt", "sleep", "gettime", "poll",
+			"getrusage", "getrlimit", "setrlimit", "unknown" };
+
+	private static final int numSyscalls = names.length - 1;
+
+	private static final int numBuckets = 16 + 60 * 8;
+
+	private static boolean enabled = false;
+
+	private static PrintStream trace = null;
+
+	private static ArrayList<SyscallStats> all = new ArrayList<SyscallStats>();
+
+	private static final char dbgSyscall = 'a';
+}
@@ -24,8 +24,26 @@ public class UThread extends KThread {
 		this.process = process;
 	}
 
+	/**
+	 * Allocate a new UThread that starts running user code at a function of
+	 * its process, rather than at the program's entry point.
+	 * 
+	 * @param process the process the thread belongs to.
+	 * @param pc      the address of the function.
+	 * @param sp      the top of the thread's stack.
+	 * @param arg     the argument to pass to the function.
+	 */
+	public UThread(UserProcess process, int pc, int sp, int arg) {
+		this(process);
+
+		entry = new int[] { pc, sp, arg };
+	}
+
 	private void runProgram() {
-		process.initRegisters();
+		if (entry == null)
+			process.initRegisters();
+		else
+			process.initThreadRegisters(entry[0], entry[1], entry[2]);
 		process.restoreState();
 
 		Machine.processor().run();
@@ -37,6 +55,7 @@ public class UThread extends KThread {
 	 * Save state before giving up the processor to another thread.
 	 */
 	protected void saveState() {
+		process.chargeTicks(inKernel);
 		process.saveState();
 
 		for (int i = 0; i < Processor.numUserRegisters; i++)
@@ -54,9 +73,30 @@ public class UThread extends KThread {
 		for (int i = 0; i < Processor.numUserRegisters; i++)
 			Machine.processor().writeRegister(i, userRegisters[i]);
 
+		// if another thread is ending the process, make this one fault as
+		// soon as it runs user code again, so that it leaves the process
+		if (process.isExiting()) {
+			Machine.processor().writeRegister(Processor.regPC, 1);
+			Machine.processor().writeRegister(Processor.regNextPC, 1);
+		}
+
 		process.restoreState();
 	}
 
+	/**
+	 * Tell the process that its thread has blocked.
+	 */
+	protected void blocked() {
+		process.blocked();
+	}
+
+	/**
+	 * Tell the process that its thread is runnable again.
+	 */
+	protected void unblocked() {
+		process.unblocked();
+	}
+
 	/**
 	 * Storage for the user register set.
 	 * 
@@ -72,4 +112,16 @@ public class UThread extends KThread {
 	 * The process to which this thread belongs.
 	 */
 	public UserProcess process;
+
+	/** The thread ID within the process; the first thread is 0. */
+	public int threadID = 0;
+
+	/** The stack this thread runs on, or -1 for the program's own stack. */
+	int stackSlot = -1;
+
+	/** Whether the thread is in an exception handler, not user code. */
+	boolean inKernel = false;
+
+	/** The PC, SP and argument to start with, if not the program's entry. */
+	private int[] entry = null;
 }
@@ -25,6 +25,49 @@ public class UserKernel extends ThreadedKernel {
 		super.initialize(args);
 
 		console = new SynchConsole(Machine.console());
+		processTable = new ProcessTable();
+
+		int bufferCacheBlocks = Config.getInteger("UserKernel.bufferCacheBlocks", 0);
+		if (bufferCacheBlocks > 0 && fileSystem != null) {
+			bufferCache = new BufferCache(fileSystem, bufferCacheBlocks, Config
+					.getString("UserKernel.bufferCachePolicy", "lru").equals("clock"));
+			fileSystem = bufferCache;
+
+			final int flushInterval = Config.getInteger("UserKernel.bufferCacheFlushInterval", 50000);
+			if (flushInterval > 0) {
+				KThread flusher = new KThread(new Runnable() {
+					public void run() {
+						while (true) {
+							ThreadedKernel.alarm.waitUntil(flushInterval);
+							bufferCache.flush();
+						}
+					}
+				});
+				flusher.setName("buffer cache flusher");
+				boolean intStatus = Machine.interrupt().disable();
+				ThreadedKernel.scheduler.setPriority(flusher, 0);
+				Machine.interrupt().restore(intStatus);
+				flusher.fork();
+			}
+		}
+
+		int readaheadBytes = Config.getInteger("UserKernel.readaheadBytes", 0);
+		if (readaheadBytes > 0) {
+			ReadaheadFile.startWorker(readaheadBytes);
+			readahead = true;
+		}
+
+		int execCacheSize = Config.getInteger("UserKernel.execCacheSize", 0);
+		if (execCacheSize > 0)
+			execCache = new ExecutableCache(execCacheSize, Config.getBoolean(
+					"UserKernel.execCachePages", false));
+
+		if (Config.getBoolean("UserKernel.syscallStats", false))
+			SyscallStats.enable(Config.getString("UserKernel.syscallTrace"));
+
+		int aioWorkers = Config.getInteger("UserKernel.aioWorkers", 0);
+		if (aioWorkers > 0)
+			AsyncIO.startWorkers(aioWorkers);
 
 		Machine.processor().setExceptionHandler(new Runnable() {
 			public void run() {
@@ -54,6 +97,7 @@ public class UserKernel extends ThreadedKernel {
 			console.writeByte(c);
 		} while (c != 'q');
 
+		console.flush();
 		System.out.println("");
 	}
 
@@ -69,6 +113,16 @@ public class UserKernel extends ThreadedKernel {
 		return ((UThread) KThread.currentThread()).process;
 	}
 
+	/**
+	 * Return <tt>true</tt> if the current thread belongs to a process that is
+	 * exiting. A kernel wait that such a thread is woken from should be given
+	 * up, so that the thread can leave the process.
+	 */
+	public static boolean currentProcessExiting() {
+		UserProcess process = currentProcess();
+		return process != null && process.isExiting();
+	}
+
 	/**
 	 * The exception handler. This handler is called by the processor whenever a
 	 * user instruction causes a processor exception.
@@ -85,9 +139,14 @@ public class UserKernel extends ThreadedKernel {
 	public void exceptionHandler() {
 		Lib.assertTrue(KThread.currentThread() instanceof UThread);
 
-		UserProcess process = ((UThread) KThread.currentThread()).process;
+		UThread thread = (UThread) KThread.currentThread();
+		UserProcess process = thread.process;
 		int cause = Machine.processor().readRegister(Processor.regCause);
+		process.chargeTicks(false);
+		thread.inKernel = true;
 		process.handleException(cause);
+		process.chargeTicks(true);
+		thread.inKernel = false;
 	}
 
 	/**
@@ -101,9 +160,7 @@ public class UserKernel extends ThreadedKernel {
 		super.run();
 
 		UserProcess process = UserProcess.newUserProcess();
-		process.currProcessID = UserProcess.processID;
-		UserProcess.processID++;
-		UserProcess.numProcess++;
+		processTable.add(process, null);
 		
 		String shellProgram = Machine.getShellProgramName();
 		if (!process.execute(shellProgram, new String[] {})) {
@@ -129,9 +186,32 @@ public class UserKernel extends ThreadedKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		if (bufferCache != null)
+			bufferCache.flush();
+		console.flush();
 		super.terminate();
 	}
 
+	/**
+	 * Print the counts kept by the buffer cache and the other optional parts of
+	 * this kernel that are enabled.
+	 */
+	public void printStats() {
+		super.printStats();
+		if (bufferCache != null)
+			System.out.println("Buffer cache: " + bufferCache);
+		if (readahead)
+			System.out.println("Readahead: " + ReadaheadFile.getStats());
+		if (execCache != null)
+			System.out.println("Executable cache: " + execCache);
+		if (SyscallStats.isEnabled())
+			SyscallStats.printAll();
+		if (AsyncIO.isEnabled())
+			System.out.println("Async I/O: " + AsyncIO.getStats());
+		if (Futex.wasUsed())
+			System.out.println("Futex: " + Futex.getStats());
+	}
+
 	public static int getNumFreePages(){
 		return freePPNs.size();
 	}
@@ -147,6 +227,24 @@ public class UserKernel extends ThreadedKernel {
 	/** Globally accessible reference to the synchronized console. */
 	public static SynchConsole console;
 
+	/** The executable cache, or <tt>null</tt> if there is none. */
+	public static ExecutableCache execCache = null;
+
+	/** The processes that are running, or have exited but not been joined. */
+	public static ProcessTable processTable;
+
+	/**
+	 * The buffer cache in front of the file system, or <tt>null</tt> unless
+	 * <tt>UserKernel.bufferCacheBlocks</tt> is set in <tt>nachos.conf</tt>.
+	 */
+	public static BufferCache bufferCache = null;
+
+	/**
+	 * Whether files opened by user programs are read ahead, as set by
+	 * <tt>UserKernel.readaheadBytes</tt>.
+	 */
+	public static boolean readahead = false;
+
 	// dummy variables to make javac smarter
 	private static Coff dummy1 = null;
 
@@ -8,6 +8,7 @@ import nachos.vm.*;
 import java.io.EOFException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 
 import javax.print.attribute.standard.PagesPerMinute;
 import javax.print.event.PrintJobAttributeEvent;
@@ -29,13 +30,9 @@ public class UserProcess {
 	 * Allocate a new process.
 	 */
 	public UserProcess() {
-		// OpenFileList initialize to null
-		OpenFileList.add(UserKernel.console.openForReading());
-		OpenFileList.add(UserKernel.console.openForWriting());
-		// OpenFileList.add(UserKernel.console.openForReading());
-		for (int i = 2; i < 16; i++) {
-			OpenFileList.add(null);
-		}
+		fileTable = new FileTable(softLimits[rlimitFiles]);
+		fileTable.add(UserKernel.console.openForReading());
+		fileTable.add(UserKernel.console.openForWriting());
 	}
 
 	/**
@@ -75,11 +72,36 @@ public class UserProcess {
 			return false;
 
 		thread = new UThread(this);
+		threads.put(thread.threadID, thread);
 		thread.setName(name).fork();
 
 		return true;
 	}
 
+	/**
+	 * Return the process ID of this process.
+	 * 
+	 * @return the process ID.
+	 */
+	public int getProcessID() {
+		return currProcessID;
+	}
+
+	/**
+	 * Return <tt>true</tt> if a thread of this process has called
+	 * <tt>exit()</tt>, so that its other threads are leaving.
+	 */
+	public boolean isExiting() {
+		return exiting;
+	}
+
+	/**
+	 * Return the number of threads running in this process.
+	 */
+	protected int getNumThreads() {
+		return threads.size();
+	}
+
 	/**
 	 * Save the state of this process in preparation for a context switch.
 	 * Called by <tt>UThread.saveState()</tt>.
@@ -93,6 +115,75 @@ public class UserProcess {
 	 */
 	public void restoreState() {
 		Machine.processor().setPageTable(pageTable);
+		lastChargeTime = Machine.timer().getTime();
+	}
+
+	/**
+	 * Charge the ticks since the last charge, or since a thread of this
+	 * process last got the processor, to this process. Called by
+	 * <tt>UThread</tt> when its thread enters or leaves the kernel and when
+	 * it gives up the processor.
+	 * 
+	 * @param kernel <tt>true</tt> if the thread spent them in the kernel.
+	 */
+	void chargeTicks(boolean kernel) {
+		long now = Machine.timer().getTime();
+		if (kernel)
+			kernelTicks += now - lastChargeTime;
+		else
+			userTicks += now - lastChargeTime;
+		lastChargeTime = now;
+	}
+
+	/**
+	 * Return the soft limit on a resource, which is what is enforced.
+	 * 
+	 * @param resource one of the <tt>rlimitZZZ</tt> constants.
+	 * @return the limit, or <tt>unlimited</tt>.
+	 */
+	protected int getLimit(int resource) {
+		return softLimits[resource];
+	}
+
+	/**
+	 * Return the number of frames this process holds.
+	 */
+	protected int getNumFrames() {
+		return (pageTable == null) ? 0 : numPages;
+	}
+
+	/**
+	 * Return the number of swap slots this process holds.
+	 */
+	protected int getNumSwapPages() {
+		return 0;
+	}
+
+	/**
+	 * End the process if it holds more than its limits allow. A process
+	 * cannot be refused swap space for a page that must be evicted, so one
+	 * over its swap limit is stopped the next time it enters the kernel.
+	 */
+	protected void enforceLimits() {
+		if (!exiting && getNumSwapPages() > getLimit(rlimitSwap)) {
+			Lib.debug(dbgProcess, "process " + currProcessID
+					+ " exceeded its swap limit");
+			handleExit(-1);
+		}
+	}
+
+	/**
+	 * Called by <tt>UThread.blocked()</tt>, with interrupts disabled, when the
+	 * thread of this process blocks.
+	 */
+	public void blocked() {
+	}
+
+	/**
+	 * Called by <tt>UThread.unblocked()</tt>, with interrupts disabled, when
+	 * the thread of this process is woken up.
+	 */
+	public void unblocked() {
 	}
 
 	/**
@@ -110,13 +201,40 @@ public class UserProcess {
 	 */
 	public String readVirtualMemoryString(int vaddr, int maxLength) {
 		Lib.assertTrue(maxLength >= 0);
+		if (vaddr < 0)
+			return null;
 
-		byte[] bytes = new byte[maxLength + 1];
+		// scan for the terminator a page at a time in physical memory, so
+		// that no page past the end of the string is touched
+		byte[] memory = Machine.processor().getMemory();
+		StringBuilder result = null;
+		int remaining = maxLength + 1;
+		while (remaining > 0) {
+			int vpn = Processor.pageFromAddress(vaddr);
+			int offset = Processor.offsetFromAddress(vaddr);
+			int ppn = pinPage(vpn, false);
+			if (ppn == -1)
+				return null;
+
+			int start = ppn * pageSize + offset;
+			int end = start + Math.min(remaining, pageSize - offset);
+			int nul = start;
+			while (nul < end && memory[nul] != 0)
+				nul++;
+			String piece = new String(memory, start, nul - start);
+			unpinPage(vpn);
+
+			if (nul < end) {
+				if (result == null)
+					return piece;
+				return result.append(piece).toString();
+			}
 
-		int bytesRead = readVirtualMemory(vaddr, bytes);
-		for (int length = 0; length < bytesRead; length++) {
-			if (bytes[length] == 0)
-				return new String(bytes, 0, length);
+			if (result == null)
+				result = new StringBuilder();
+			result.append(piece);
+			remaining -= end - start;
+			vaddr += end - start;
 		}
 
 		return null;
@@ -249,6 +367,16 @@ public class UserProcess {
 		return totalWrote;
 	}
 
+	/**
+	 * Return true if user programs may not write the specified page.
+	 * 
+	 * @param vpn the virtual page to check.
+	 * @return <tt>true</tt> if the page is read-only.
+	 */
+	protected boolean isReadOnly(int vpn) {
+		return pageTable[vpn].readOnly;
+	}
+
 	/**
 	 * Load the executable with the specified name into this process, and
 	 * prepare to pass it the specified arguments. Opens the executable, reads
@@ -262,18 +390,27 @@ public class UserProcess {
 	private boolean load(String name, String[] args) {
 		Lib.debug(dbgProcess, "UserProcess.load(\"" + name + "\")");
 
-		OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
-		if (executable == null) {
-			Lib.debug(dbgProcess, "\topen failed");
-			return false;
+		if (UserKernel.execCache != null) {
+			coff = UserKernel.execCache.open(name);
+			if (coff == null) {
+				Lib.debug(dbgProcess, "\tcoff load failed");
+				return false;
+			}
 		}
+		else {
+			OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
+			if (executable == null) {
+				Lib.debug(dbgProcess, "\topen failed");
+				return false;
+			}
 
-		try {
-			coff = new Coff(executable);
-		} catch (EOFException e) {
-			executable.close();
-			Lib.debug(dbgProcess, "\tcoff load failed");
-			return false;
+			try {
+				coff = new Coff(executable);
+			} catch (EOFException e) {
+				executable.close();
+				Lib.debug(dbgProcess, "\tcoff load failed");
+				return false;
+			}
 		}
 
 		// make sure the sections are contiguous and start at page 0
@@ -281,7 +418,7 @@ public class UserProcess {
 		for (int s = 0; s < coff.getNumSections(); s++) {
 			CoffSection section = coff.getSection(s);
 			if (section.getFirstVPN() != numPages) {
-				coff.close();
+				closeCoff();
 				Lib.debug(dbgProcess, "\tfragmented executable");
 				return false;
 			}
@@ -297,7 +434,7 @@ public class UserProcess {
 			argsSize += 4 + argv[i].length + 1;
 		}
 		if (argsSize > pageSize) {
-			coff.close();
+			closeCoff();
 			Lib.debug(dbgProcess, "\targuments too long");
 			return false;
 		}
@@ -305,6 +442,10 @@ public class UserProcess {
 		// program counter initially points at the program entry point
 		initialPC = coff.getEntryPoint();
 
+		// then the stacks of any threads the program creates, below its own
+		threadStacksVPN = numPages;
+		numPages += stackSlots.length * stackPages;
+
 		// next comes the stack; stack pointer initially points to top of it
 		numPages += stackPages;
 		initialSP = numPages * pageSize;
@@ -315,26 +456,48 @@ public class UserProcess {
 		if (!loadSections())
 			return false;
 
-		// store arguments in last page
+		// store arguments in last page: build the pointers and the strings in
+		// one buffer and copy it out at once
 		int entryOffset = (numPages - 1) * pageSize;
-		int stringOffset = entryOffset + args.length * 4;
+		byte[] argsPage = new byte[argsSize];
+		int stringOffset = args.length * 4;
 
 		this.argc = args.length;
 		this.argv = entryOffset;
 
 		for (int i = 0; i < argv.length; i++) {
-			byte[] stringOffsetBytes = Lib.bytesFromInt(stringOffset);
-			Lib.assertTrue(writeVirtualMemory(entryOffset, stringOffsetBytes) == 4);
-			entryOffset += 4;
-			Lib.assertTrue(writeVirtualMemory(stringOffset, argv[i]) == argv[i].length);
-			stringOffset += argv[i].length;
-			Lib.assertTrue(writeVirtualMemory(stringOffset, new byte[] { 0 }) == 1);
-			stringOffset += 1;
+			Lib.bytesFromInt(argsPage, i * 4, entryOffset + stringOffset);
+			System.arraycopy(argv[i], 0, argsPage, stringOffset, argv[i].length);
+			// the terminator is already zero
+			stringOffset += argv[i].length + 1;
 		}
+		Lib.assertTrue(writeVirtualMemory(entryOffset, argsPage) == argsSize);
 
 		return true;
 	}
 
+	/**
+	 * Let go of the executable, through the executable cache if it came from
+	 * there.
+	 */
+	protected void closeCoff() {
+		if (UserKernel.execCache != null)
+			UserKernel.execCache.release(coff);
+		else
+			coff.close();
+	}
+
+	/**
+	 * Load a page of a COFF section into a physical page, through the
+	 * executable cache if there is one.
+	 */
+	protected void loadCoffPage(CoffSection section, int spn, int ppn) {
+		if (UserKernel.execCache != null)
+			UserKernel.execCache.loadPage(section, spn, ppn);
+		else
+			section.loadPage(spn, ppn);
+	}
+
 	/**
 	 * Allocates memory for this process, and loads the COFF sections into
 	 * memory. If this returns successfully, the process will definitely be run
@@ -346,10 +509,15 @@ public class UserProcess {
 		Lock lock = new Lock();
 		lock.acquire();
 		if (numPages > UserKernel.getNumFreePages()) {
-			coff.close();
+			closeCoff();
 			Lib.debug(dbgProcess, "\tinsufficient physical memory");
 			return false;
 		}
+		if (numPages > getLimit(rlimitFrames)) {
+			closeCoff();
+			Lib.debug(dbgProcess, "\tframe limit exceeded");
+			return false;
+		}
 
 		pageTable = new TranslationEntry[numPages];
 		// load sections
@@ -364,13 +532,14 @@ public class UserProcess {
 				vpn = section.getFirstVPN() + i;
 				// for now, just assume virtual addresses=physical addresses
 				int ppn = UserKernel.getNextFreePage();
-				section.loadPage(i, ppn);
+				loadCoffPage(section, i, ppn);
 				boolean isReadOnly = section.isReadOnly();
 
 				pageTable[vpn] = new TranslationEntry(vpn, ppn, true, isReadOnly, false, false); // maybe???????
 			}
 		}
-		for (int i = 0; i < 9; i++) {
+		// then the stacks and the argument page
+		while (vpn < numPages - 1) {
 			vpn = vpn + 1;
 			int ppn = UserKernel.getNextFreePage();
 			pageTable[vpn] = new TranslationEntry(vpn, ppn, true, false, false, false);
@@ -417,12 +586,33 @@ public class UserProcess {
 		processor.writeRegister(Processor.regA1, argv);
 	}
 
+	/**
+	 * Initialize the processor's registers for a thread created by
+	 * <tt>thread_create()</tt>: set the PC to the thread's function, the stack
+	 * pointer to the top of its stack and A0 to the function's argument, and
+	 * all other registers to 0.
+	 * 
+	 * @param pc  the address of the function.
+	 * @param sp  the top of the thread's stack.
+	 * @param arg the argument to the function.
+	 */
+	public void initThreadRegisters(int pc, int sp, int arg) {
+		Processor processor = Machine.processor();
+
+		for (int i = 0; i < Processor.numUserRegisters; i++)
+			processor.writeRegister(i, 0);
+
+		processor.writeRegister(Processor.regPC, pc);
+		processor.writeRegister(Processor.regSP, sp);
+		processor.writeRegister(Processor.regA0, arg);
+	}
+
 	/**
 	 * Handle the halt() system call.
 	 */
 	private int handleHalt() {
 		if (this.currProcessID == 0)
-			Machine.halt();
+			Kernel.kernel.terminate();
 		else
 			return -1;
 
@@ -440,35 +630,329 @@ public class UserProcess {
 		// can grade your implementation.
 
 		Lib.debug(dbgProcess, "UserProcess.handleExit (" + status + ")");
-		// for now, unconditionally terminate with just one process
 
-		//Terminate the thread		
-		numProcess--;
+		// the first exit decides the status; any other threads leave when
+		// they next enter the kernel
+		if (!exiting) {
+			exiting = true;
+			exitStatus = status;
+			interruptWaits();
+		}
+		leaveThread(exitStatus);
+	}
+
+	/**
+	 * Wake the other threads of this process from every kernel wait that can
+	 * last indefinitely. Each wait checks <tt>isExiting()</tt> when woken and
+	 * gives up, so that the thread leaves the process.
+	 */
+	private void interruptWaits() {
+		Futex.wakeProcess(this);
+		Poller.wakeProcess(this);
+		fileTable.interruptWaiters();
+		UserKernel.processTable.interruptJoin(currProcessID);
+
+		threadLock.acquire();
+		threadExited.wakeAll();
+		threadLock.release();
+
+		for (Iterator<AsyncIO.Request> i = aioRequests.values().iterator(); i
+				.hasNext();)
+			i.next().interruptWaiters();
+	}
+
+	/**
+	 * Finish the current thread, which leaves this process. The last thread to
+	 * leave releases the process's resources, and the process exits with
+	 * <i>status</i>, or with the status given to <tt>exit()</tt> if a thread
+	 * has called it.
+	 * 
+	 * @param status the exit status of the thread.
+	 */
+	private void leaveThread(int status) {
+		UThread current = (UThread) KThread.currentThread();
+
+		threadLock.acquire();
+		threads.remove(current.threadID);
+		if (current.stackSlot >= 0)
+			stackSlots[current.stackSlot] = false;
+		if (!exiting)
+			threadStatus.put(current.threadID, status);
+		boolean last = threads.isEmpty();
+		threadExited.wakeAll();
+		threadLock.release();
+
+		if (last) {
+			chargeTicks(true);
+			Lib.debug(dbgProcess, "process " + currProcessID + ": " + userTicks
+					+ " user ticks, " + kernelTicks + " kernel ticks");
+			// Close all Files in file table
+			finishAsyncIO(null);
+			fileTable.closeAll();
+			// Release all memory return physical pages to the UserKernel
+			unloadSections();
+			// Close the coff sections
+			closeCoff();
+			// Leave the exit status for the parent; halt after the last process
+			if (UserKernel.processTable.exit(currProcessID,
+					exiting ? exitStatus : status))
+				Kernel.kernel.terminate();
+		}
+
+		KThread.finish();
+	}
 
-		// Close all Files in file table
-		for (int i = 0; i < OpenFileList.size(); i++) {
-			handleClose(i);
+	/**
+	 * Handle the thread_create() system call. The new thread shares this
+	 * process's memory and descriptors and runs on one of the stacks reserved
+	 * by <tt>load()</tt>.
+	 */
+	private int handleThreadCreate(int func, int arg) {
+		threadLock.acquire();
+		int slot = 0;
+		while (slot < stackSlots.length && stackSlots[slot])
+			slot++;
+		if (slot == stackSlots.length) {
+			threadLock.release();
+			return -1;
 		}
-		// Release all memory return physical pages to the UserKernel
-		unloadSections();
-		// Close the coff sections
-		coff.close();
-		// If it has a parent process -> save child's exit status in parent
-		if (parent != null) {
-			parent.exitStatus.put(this.currProcessID, status);
+
+		int sp = (threadStacksVPN + (slot + 1) * stackPages) * pageSize;
+		UThread child = new UThread(this, func, sp, arg);
+		child.threadID = nextThreadID++;
+		child.stackSlot = slot;
+		stackSlots[slot] = true;
+		threads.put(child.threadID, child);
+		threadLock.release();
+
+		child.setName(thread.getName() + " thread " + child.threadID).fork();
+		return child.threadID;
+	}
+
+	/**
+	 * Handle the futex_wait() system call. The page holding the word stays
+	 * pinned while the thread waits, so that its physical address, which
+	 * identifies the wait queue, does not change.
+	 */
+	private int handleFutexWait(int addr, int expected, int timeout) {
+		if ((addr & 3) != 0)
+			return -1;
+		int vpn = Processor.pageFromAddress(addr);
+		int ppn = pinFutexPage(vpn);
+		if (ppn == -1)
+			return -1;
+
+		int result = Futex.wait(this,
+				ppn * pageSize + Processor.offsetFromAddress(addr), expected,
+				timeout);
+		unpinPage(vpn);
+		return result;
+	}
+
+	/**
+	 * Handle the futex_wake() system call.
+	 */
+	private int handleFutexWake(int addr, int count) {
+		if ((addr & 3) != 0 || count < 0)
+			return -1;
+		int vpn = Processor.pageFromAddress(addr);
+		int ppn = pinFutexPage(vpn);
+		if (ppn == -1)
+			return -1;
+
+		int result = Futex.wake(ppn * pageSize
+				+ Processor.offsetFromAddress(addr), count);
+		unpinPage(vpn);
+		return result;
+	}
+
+	/**
+	 * Handle the sleep() system call.
+	 */
+	private int handleSleep(int ticks) {
+		if (ticks < 0)
+			return -1;
+
+		long wakeTime = Machine.timer().getTime() + ticks;
+		boolean intStatus = Machine.interrupt().disable();
+		long remaining;
+		while (!exiting && (remaining = wakeTime - Machine.timer().getTime()) > 0)
+			Poller.await(this, remaining, false);
+		Machine.interrupt().restore(intStatus);
+		return 0;
+	}
+
+	/**
+	 * Handle the gettime() system call.
+	 */
+	private int handleGetTime() {
+		return (int) Machine.timer().getTime();
+	}
+
+	/**
+	 * Handle the poll() system call. The descriptors are checked with
+	 * interrupts disabled, and the thread sleeps with them still disabled
+	 * until a <tt>Pollable</tt> file changes or the timeout expires, so no
+	 * change can be missed in between.
+	 */
+	private int handlePoll(int fdsAddr, int nfds, int timeout) {
+		if (nfds < 0 || nfds > getLimit(rlimitFiles))
+			return -1;
+		byte[] fds = new byte[nfds * pollfdSize];
+		if (readVirtualMemory(fdsAddr, fds) != fds.length)
+			return -1;
+
+		long deadline = Machine.timer().getTime() + timeout;
+		boolean intStatus = Machine.interrupt().disable();
+		int numReady;
+		while (true) {
+			numReady = 0;
+			for (int i = 0; i < nfds; i++) {
+				int offset = i * pollfdSize;
+				OpenFile file = fileTable.get(Lib.bytesToInt(fds, offset));
+				int events = Lib.bytesToShort(fds, offset + 4);
+				int revents = 0;
+				if (file == null)
+					revents = pollInvalid;
+				else if (!(file instanceof Pollable))
+					revents = events & (pollIn | pollOut);
+				else {
+					if ((events & pollIn) != 0 && ((Pollable) file).isReadable())
+						revents |= pollIn;
+					if ((events & pollOut) != 0 && ((Pollable) file).isWritable())
+						revents |= pollOut;
+				}
+				Lib.bytesFromShort(fds, offset + 6, (short) revents);
+				if (revents != 0)
+					numReady++;
+			}
+
+			if (numReady > 0 || exiting || timeout == 0)
+				break;
+			long remaining = -1;
+			if (timeout > 0) {
+				remaining = deadline - Machine.timer().getTime();
+				if (remaining <= 0)
+					break;
+			}
+			Poller.await(this, remaining, true);
 		}
-		
-		if (numProcess == 0)
-			Kernel.kernel.terminate();
+		Machine.interrupt().restore(intStatus);
 
-		this.thread.finish();
+		if (writeVirtualMemory(fdsAddr, fds) != fds.length)
+			return -1;
+		return numReady;
 	}
 
-	private int handleCreate(int vaname) {
-		// check table size, must be less than 16
-		// if (OpenFileList.size() == 16)
-		// return -1;
+	/**
+	 * Handle the getrusage() system call. Copies this process's resource use
+	 * to the array of <tt>rusageNumFields</tt> ints at <i>vaddr</i>.
+	 */
+	private int handleGetRusage(int vaddr) {
+		chargeTicks(true);
+
+		byte[] buffer = new byte[rusageNumFields * 4];
+		Lib.bytesFromInt(buffer, rusageUserTicks * 4, (int) userTicks);
+		Lib.bytesFromInt(buffer, rusageKernelTicks * 4, (int) kernelTicks);
+		Lib.bytesFromInt(buffer, rusageFrames * 4, getNumFrames());
+		Lib.bytesFromInt(buffer, rusageSwapPages * 4, getNumSwapPages());
+		Lib.bytesFromInt(buffer, rusageFiles * 4, fileTable.getNumOpen());
+		Lib.bytesFromInt(buffer, rusageChildren * 4,
+				UserKernel.processTable.getNumChildren(currProcessID));
+
+		if (writeVirtualMemory(vaddr, buffer) != buffer.length)
+			return -1;
+		return 0;
+	}
 
+	/**
+	 * Handle the getrlimit() system call. Copies the soft and hard limits on
+	 * a resource to the two ints at <i>vaddr</i>, with -1 for no limit.
+	 */
+	private int handleGetRlimit(int resource, int vaddr) {
+		if (resource < 0 || resource >= numLimits)
+			return -1;
+
+		byte[] buffer = new byte[8];
+		Lib.bytesFromInt(buffer, 0, toUser(softLimits[resource]));
+		Lib.bytesFromInt(buffer, 4, toUser(hardLimits[resource]));
+		if (writeVirtualMemory(vaddr, buffer) != buffer.length)
+			return -1;
+		return 0;
+	}
+
+	/**
+	 * Handle the setrlimit() system call. The soft limit may be set anywhere
+	 * up to the hard limit, and the hard limit may be lowered but never
+	 * raised. -1 means no limit.
+	 */
+	private int handleSetRlimit(int resource, int soft, int hard) {
+		if (resource < 0 || resource >= numLimits || soft < -1 || hard < -1)
+			return -1;
+		soft = (soft == -1) ? unlimited : soft;
+		hard = (hard == -1) ? unlimited : hard;
+		if (soft < minLimits[resource] || soft > hard
+				|| hard > hardLimits[resource])
+			return -1;
+
+		softLimits[resource] = soft;
+		hardLimits[resource] = hard;
+		if (resource == rlimitFiles)
+			fileTable.setLimit(soft);
+		return 0;
+	}
+
+	/**
+	 * Convert a limit to what a user program sees, with -1 for no limit.
+	 */
+	private static int toUser(int limit) {
+		return (limit == unlimited) ? -1 : limit;
+	}
+
+	/**
+	 * Read a limit from <tt>nachos.conf</tt>, where a negative value means no
+	 * limit. The hard limit defaults to the soft one.
+	 * 
+	 * @param resource one of the <tt>rlimitZZZ</tt> constants.
+	 * @param key      the key of the soft limit; the key of the hard limit is
+	 *                 this with <tt>Hard</tt> appended.
+	 * @param hard     <tt>true</tt> for the hard limit.
+	 * @param def      the soft limit if <tt>nachos.conf</tt> has none.
+	 */
+	private static int configLimit(int resource, String key, boolean hard,
+			int def) {
+		int limit = Config.getInteger(key, def);
+		if (hard)
+			limit = Config.getInteger(key + "Hard", limit);
+		if (limit < 0)
+			limit = unlimited;
+		if (resource == rlimitFiles)
+			limit = Math.min(limit, FileTable.maxLimit);
+		return Math.max(limit, minLimits[resource]);
+	}
+
+	/**
+	 * Handle the thread_join() system call.
+	 */
+	private int handleThreadJoin(int threadID, int statusAddr) {
+		if (threadID == ((UThread) KThread.currentThread()).threadID)
+			return -1;
+
+		threadLock.acquire();
+		while (threads.containsKey(threadID) && !exiting)
+			threadExited.sleep();
+		Integer status = threadStatus.remove(threadID);
+		threadLock.release();
+
+		if (status == null)
+			return -1;
+		if (statusAddr != 0
+				&& writeVirtualMemory(statusAddr, Lib.bytesFromInt(status)) != 4)
+			return -1;
+		return 0;
+	}
+
+	private int handleCreate(int vaname) {
 		// get the string
 		String filename = readVirtualMemoryString(vaname, 256);
 		// check whether string is null
@@ -476,25 +960,22 @@ public class UserProcess {
 			return -1;
 
 		// creates a new file
+		if (UserKernel.execCache != null)
+			UserKernel.execCache.invalidate(filename);
 		OpenFile file = ThreadedKernel.fileSystem.open(filename, true);
 		// checks whether string consists of unprintable characters
 		if (file == null)
 			return -1;
-
-		for (int i = 0; i < 16; i++) {
-			if (OpenFileList.get(i) == null) {
-				OpenFileList.set(i, file);
-				return i;
-			}
+		if (UserKernel.readahead) {
+			// the file was truncated under any readers it has
+			ReadaheadFile.invalidate(filename);
+			file = new ReadaheadFile(file);
 		}
-		return -1;
+
+		return addFile(file);
 	}
 
 	private int handleOpen(int vaname) {
-		// check table size, must be less than 16
-		// if (OpenFileList.size() == 16)
-		// return -1;
-
 		// get the string
 		String filename = readVirtualMemoryString(vaname, 256);
 		// check whether string is null
@@ -506,30 +987,66 @@ public class UserProcess {
 		// checks whether string consists of unprintable characters
 		if (file == null)
 			return -1;
+		if (UserKernel.readahead)
+			file = new ReadaheadFile(file);
 
-		for (int i = 0; i < 16; i++) {
-			if (OpenFileList.get(i) == null) {
-				OpenFileList.set(i, file);
-				return i;
-			}
-		}
-		return -1;
+		return addFile(file);
+	}
+
+	/**
+	 * Give a newly opened file a descriptor, closing it again if the
+	 * descriptor table is full.
+	 */
+	private int addFile(OpenFile file) {
+		int descriptor = fileTable.add(file);
+		if (descriptor == -1)
+			file.close();
+		return descriptor;
 	}
 
 	private int handleClose(int descriptor) {
-		if (descriptor > 15 || descriptor < 0)
+		OpenFile file = fileTable.get(descriptor);
+		if (file != null && !aioRequests.isEmpty())
+			finishAsyncIO(file);
+		return fileTable.close(descriptor) ? 0 : -1;
+	}
+
+	/**
+	 * Handle the pipe() system call: create a pipe and store its read and
+	 * write descriptors in the two ints at <i>fdsAddr</i>.
+	 */
+	private int handlePipe(int fdsAddr) {
+		Pipe pipe = new Pipe(pipeSize);
+		int readFd = fileTable.add(pipe.getReadEnd());
+		if (readFd == -1)
 			return -1;
-		if (OpenFileList.get(descriptor) == null)
+		int writeFd = fileTable.add(pipe.getWriteEnd());
+		if (writeFd == -1) {
+			fileTable.close(readFd);
 			return -1;
-		OpenFileList.get(descriptor).close();
-		OpenFileList.set(descriptor, null);
+		}
+
+		byte[] fds = new byte[8];
+		Lib.bytesFromInt(fds, 0, readFd);
+		Lib.bytesFromInt(fds, 4, writeFd);
+		if (writeVirtualMemory(fdsAddr, fds) != fds.length) {
+			fileTable.close(readFd);
+			fileTable.close(writeFd);
+			return -1;
+		}
 		return 0;
 	}
 
+	/**
+	 * Handle the dup() system call: make the lowest free descriptor refer to
+	 * the same open file, and file position, as <i>descriptor</i>.
+	 */
+	private int handleDup(int descriptor) {
+		return fileTable.dup(descriptor);
+	}
+
 	private int handleRead(int descriptor, int buf, int count) {
-		if (descriptor > 15 || descriptor < 0)
-			return -1;
-		OpenFile file = OpenFileList.get(descriptor);
+		OpenFile file = fileTable.get(descriptor);
 		if (file == null)
 			return -1;
 
@@ -539,38 +1056,12 @@ public class UserProcess {
 		if (buf < 0 || buf >= numPages * pageSize)
 			return -1;
 
-		byte buffer[] = new byte[pageSize];
-		int remaining = count;
-		int curPageCount;
-		int totalBytesRead = 0;
-		int bytesRead = 0;
-		while (remaining > 0) {
-			if (remaining > pageSize)
-				curPageCount = pageSize;
-			else
-				curPageCount = remaining;
-			remaining -= pageSize;
-			bytesRead = file.read(buffer, 0, curPageCount);
-			if(bytesRead==-1) 
-				return -1;
-			boolean isReadOnly = pageTable[buf/pageSize].readOnly;
-			if(isReadOnly)
-				return -1;
-			int bytesWrote = writeVirtualMemory(buf, buffer, 0, bytesRead);			
-			if (bytesWrote == -1 || bytesWrote < bytesRead)
-				return -1;
-
-			totalBytesRead += bytesRead;
-			buf += bytesWrote;
-		}
-		return totalBytesRead;
+		return transferFile(file, buf, count, true);
 	}
 
 	private int handleWrite(int descriptor, int buf, int count) {
 		//System.out.println("asdiasdhkasdasdj");
-		if (descriptor > 15 || descriptor < 0)
-			return -1;
-		OpenFile file = OpenFileList.get(descriptor);
+		OpenFile file = fileTable.get(descriptor);
 		if (file == null)
 			return -1;
 
@@ -580,27 +1071,359 @@ public class UserProcess {
 		if (buf < 0 || buf >= numPages * pageSize)
 			return -1;
 
-		byte buffer[] = new byte[pageSize];
-		int remaining = count;
-		int curPageCount;
-		int totalBytesWrote = 0;
-		int bytesWrote = 0;
-		while (remaining > 0) {
-			if (remaining >= pageSize)
-				curPageCount = pageSize;
-			else
-				curPageCount = remaining;
-			int bytesRead = readVirtualMemory(buf, buffer, 0, curPageCount);
-			remaining -= bytesRead;
-			bytesWrote = file.write(buffer, 0, bytesRead);
-			if (bytesWrote == -1 || bytesWrote < bytesRead)
+		return transferFile(file, buf, count, false);
+	}
+
+	/**
+	 * Handle the readv() and writev() system calls. The <i>iovcnt</i>
+	 * buffers described by the iovec array at <i>iov</i> are gathered into
+	 * one kernel buffer, or scattered from it, so that the file sees a single
+	 * read or write however fragmented the user's data is. For a read,
+	 * every buffer is checked before the file is touched.
+	 */
+	private int handleVector(int descriptor, int iov, int iovcnt,
+			boolean reading) {
+		OpenFile file = fileTable.get(descriptor);
+		if (file == null || iovcnt < 0 || iovcnt > maxIovecs)
+			return -1;
+
+		byte[] vector = new byte[iovcnt * 8];
+		if (readVirtualMemory(iov, vector) != vector.length)
+			return -1;
+
+		int[] bases = new int[iovcnt], lengths = new int[iovcnt];
+		int total = 0;
+		for (int i = 0; i < iovcnt; i++) {
+			bases[i] = Lib.bytesToInt(vector, i * 8);
+			lengths[i] = Lib.bytesToInt(vector, i * 8 + 4);
+			if (lengths[i] < 0 || bases[i] < 0
+					|| lengths[i] > numPages * pageSize - bases[i])
+				return -1;
+			// fail before the file is read, not after consuming its data
+			if (reading && !isWritable(bases[i], lengths[i]))
+				return -1;
+			total += lengths[i];
+			if (total > numPages * pageSize)
+				return -1;
+		}
+
+		byte[] data = new byte[total];
+		if (reading) {
+			int count = file.read(data, 0, total);
+			if (count <= 0)
+				return count;
+			int done = 0;
+			for (int i = 0; i < iovcnt && done < count; i++) {
+				int length = Math.min(lengths[i], count - done);
+				int copied = writeVirtualMemory(bases[i], data, done, length);
+				done += copied;
+				if (copied != length)
+					break;
+			}
+			return (done > 0) ? done : -1;
+		}
+		else {
+			int done = 0;
+			for (int i = 0; i < iovcnt; i++) {
+				if (readVirtualMemory(bases[i], data, done, lengths[i]) != lengths[i])
+					return -1;
+				done += lengths[i];
+			}
+			return file.write(data, 0, total);
+		}
+	}
+
+	/**
+	 * Handle the aio_read() and aio_write() system calls. The user pages of
+	 * the buffer are pinned and the transfer is queued for an
+	 * <tt>AsyncIO</tt> worker. A pipe or the console may keep the request
+	 * waiting indefinitely, so for those the data goes through a kernel buffer
+	 * and nothing is pinned.
+	 *
+	 * @return an id for <tt>aio_wait()</tt> and <tt>aio_poll()</tt>, or -1.
+	 */
+	private int handleAsyncIO(int descriptor, int vaddr, int count,
+			boolean reading) {
+		OpenFile file = fileTable.get(descriptor);
+		if (!AsyncIO.isEnabled() || file == null || count < 0 || vaddr < 0
+				|| count > numPages * pageSize - vaddr)
+			return -1;
+		if (aioRequests.size() >= maxAioRequests)
+			return -1;
+
+		int firstVpn = Processor.pageFromAddress(vaddr);
+		int numRequestPages = (count == 0) ? 0
+				: Processor.pageFromAddress(vaddr + count - 1) - firstVpn + 1;
+		if (numRequestPages > Math.max(1, Machine.processor().getNumPhysPages() / 4))
+			return -1;
+
+		AsyncIO.Request request;
+		if (file instanceof Pollable) {
+			byte[] buffer = new byte[count];
+			if (!reading && readVirtualMemory(vaddr, buffer) != count)
 				return -1;
-			totalBytesWrote += bytesWrote;
-			if ((buf + totalBytesWrote) >= numPages * pageSize)
+			if (reading && !isWritable(vaddr, count))
+				return -1;
+			request = new AsyncIO.Request(this, file, vaddr, buffer, reading);
+		}
+		else {
+			request = pinAsyncIO(file, vaddr, count, numRequestPages, reading);
+			if (request == null)
 				return -1;
-			buf += bytesRead;
 		}
-		return totalBytesWrote;
+
+		int id = nextAioId++;
+		aioRequests.put(id, request);
+		request.submit();
+		return id;
+	}
+
+	/**
+	 * Pin the pages of a user buffer for an asynchronous transfer.
+	 *
+	 * @return the request, or <tt>null</tt> if a page could not be pinned.
+	 */
+	private AsyncIO.Request pinAsyncIO(OpenFile file, int vaddr, int count,
+			int numRequestPages, boolean reading) {
+		int firstVpn = Processor.pageFromAddress(vaddr);
+		int[] vpns = new int[numRequestPages];
+		int[] paddrs = new int[numRequestPages];
+		int[] lengths = new int[numRequestPages];
+		for (int i = 0, done = 0; i < numRequestPages; i++) {
+			int offset = (i == 0) ? Processor.offsetFromAddress(vaddr) : 0;
+			int ppn = pinPage(firstVpn + i, reading);
+			if (ppn == -1) {
+				for (int j = 0; j < i; j++)
+					unpinPage(vpns[j]);
+				return null;
+			}
+			vpns[i] = firstVpn + i;
+			paddrs[i] = ppn * pageSize + offset;
+			lengths[i] = Math.min(count - done, pageSize - offset);
+			done += lengths[i];
+		}
+
+		return new AsyncIO.Request(this, file, vpns, paddrs, lengths, reading);
+	}
+
+	/**
+	 * Handle the aio_wait() system call: wait for a request to complete and
+	 * forget it.
+	 *
+	 * @return the result of the transfer, or -1 if <i>id</i> is unknown.
+	 */
+	private int handleAioWait(int id) {
+		AsyncIO.Request request = aioRequests.get(id);
+		if (request == null)
+			return -1;
+		int result = request.await();
+		// one left waiting by an exit stays for finishAsyncIO() to abandon
+		if (request.isDone())
+			aioRequests.remove(id);
+		return result;
+	}
+
+	/**
+	 * Handle the aio_poll() system call.
+	 *
+	 * @return 1 if the request has completed, 0 if it has not, or -1 if
+	 *         <i>id</i> is unknown.
+	 */
+	private int handleAioPoll(int id) {
+		AsyncIO.Request request = aioRequests.get(id);
+		if (request == null)
+			return -1;
+		return request.isDone() ? 1 : 0;
+	}
+
+	/**
+	 * Wait for the outstanding asynchronous requests on a file, so that it
+	 * can be closed, or let go of every request if <i>file</i> is
+	 * <tt>null</tt>, so that the process can exit.
+	 */
+	private void finishAsyncIO(OpenFile file) {
+		// waiting lets other threads of the process change the map
+		ArrayList<AsyncIO.Request> requests = new ArrayList<AsyncIO.Request>(
+				aioRequests.values());
+		for (Iterator<AsyncIO.Request> i = requests.iterator(); i.hasNext();) {
+			AsyncIO.Request request = i.next();
+			if (file == null)
+				request.abandon();
+			else if (request.getFile() == file)
+				request.await();
+		}
+	}
+
+	/**
+	 * Move data between an open file and user memory without a kernel
+	 * buffer. The frames backing the user buffer are pinned and the file is
+	 * read into, or written from, main memory at the frame offsets, one file
+	 * operation per run of pages that are also contiguous in physical memory.
+	 * Pipes and the console go through <tt>transferStream()</tt> instead.
+	 *
+	 * @param file     the file to transfer to or from.
+	 * @param vaddr    the user buffer.
+	 * @param count    the number of bytes to transfer.
+	 * @param toMemory <tt>true</tt> to read the file into the buffer,
+	 *                 <tt>false</tt> to write the buffer to the file.
+	 * @return the number of bytes transferred, or -1 if the buffer does not
+	 *         fit in the address space or an error occurred before any bytes
+	 *         were transferred.
+	 */
+	private int transferFile(OpenFile file, int vaddr, int count,
+			boolean toMemory) {
+		if (count > numPages * pageSize - vaddr)
+			return -1;
+		if (file instanceof Pollable)
+			return transferStream(file, vaddr, count, toMemory);
+
+		byte[] memory = Machine.processor().getMemory();
+		int maxRunPages = Math.max(1, Machine.processor().getNumPhysPages() / 4);
+		int total = 0;
+
+		while (total < count) {
+			int vpn = Processor.pageFromAddress(vaddr + total);
+			int offset = Processor.offsetFromAddress(vaddr + total);
+			int ppn = pinPage(vpn, toMemory);
+			if (ppn == -1)
+				return (total > 0) ? total : -1;
+
+			int runPages = 1;
+			int length = Math.min(count - total, pageSize - offset);
+			while (total + length < count && runPages < maxRunPages) {
+				int next = pinPage(vpn + runPages, toMemory);
+				if (next != ppn + runPages) {
+					if (next != -1)
+						unpinPage(vpn + runPages);
+					break;
+				}
+				length += Math.min(count - total - length, pageSize);
+				runPages++;
+			}
+
+			int paddr = ppn * pageSize + offset;
+			int transferred = toMemory ? file.read(memory, paddr, length)
+					: file.write(memory, paddr, length);
+			for (int i = 0; i < runPages; i++)
+				unpinPage(vpn + i);
+
+			if (transferred == -1)
+				return (total > 0) ? total : -1;
+			total += transferred;
+			// a stream such as the console has no length; a read returns
+			// what it has, and asking it again would wait for more
+			if (transferred < length || (toMemory && file.length() < 0))
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Move data between a pipe or the console and user memory through a
+	 * kernel buffer, a page at a time. These may wait for the other end for
+	 * as long as it likes, which must not happen with user frames pinned:
+	 * the frames would be kept from every other process in the meantime.
+	 *
+	 * @see #transferFile(OpenFile, int, int, boolean)
+	 */
+	private int transferStream(OpenFile file, int vaddr, int count,
+			boolean toMemory) {
+		byte[] buffer = new byte[pageSize];
+		int total = 0;
+
+		while (total < count) {
+			int length = Math.min(count - total, pageSize);
+			int transferred;
+			if (toMemory) {
+				// writeVirtualMemory() would store into read-only pages
+				if (!isWritable(vaddr + total, length))
+					return (total > 0) ? total : -1;
+				transferred = file.read(buffer, 0, length);
+				if (transferred > 0) {
+					int copied = writeVirtualMemory(vaddr + total, buffer, 0,
+							transferred);
+					if (copied < transferred)
+						return (total + copied > 0) ? total + copied : -1;
+				}
+			}
+			else {
+				int copied = readVirtualMemory(vaddr + total, buffer, 0, length);
+				transferred = (copied > 0) ? file.write(buffer, 0, copied) : -1;
+			}
+
+			if (transferred == -1)
+				return (total > 0) ? total : -1;
+			total += transferred;
+			// a read returns what the stream has, and asking it again would
+			// wait for more
+			if (transferred < length || toMemory)
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Make the specified page resident and keep its frame from being reused
+	 * until <tt>unpinPage()</tt> is called, so that the kernel can access it
+	 * directly in main memory while it blocks.
+	 *
+	 * @param vpn     the virtual page to pin.
+	 * @param writing <tt>true</tt> if the kernel will write to the page.
+	 * @return the physical page number, or -1 if the page does not exist or
+	 *         is read-only and <i>writing</i> is set.
+	 */
+	protected int pinPage(int vpn, boolean writing) {
+		if (vpn < 0 || vpn >= pageTable.length)
+			return -1;
+		TranslationEntry entry = pageTable[vpn];
+		if (!entry.valid || (writing && isReadOnly(vpn)))
+			return -1;
+
+		entry.used = true;
+		if (writing)
+			entry.dirty = true;
+		return entry.ppn;
+	}
+
+	/**
+	 * Return <tt>true</tt> if the kernel may store into every page of a range
+	 * of user memory. <tt>writeVirtualMemory()</tt> does not check for
+	 * read-only pages, so a syscall that copies into a user buffer through it
+	 * must check first.
+	 *
+	 * @param vaddr  the first byte of the range.
+	 * @param length the number of bytes in the range.
+	 * @return <tt>true</tt> if every page can be pinned for writing.
+	 */
+	protected boolean isWritable(int vaddr, int length) {
+		if (length == 0)
+			return true;
+		int lastVpn = Processor.pageFromAddress(vaddr + length - 1);
+		for (int vpn = Processor.pageFromAddress(vaddr); vpn <= lastVpn; vpn++) {
+			if (pinPage(vpn, true) == -1)
+				return false;
+			unpinPage(vpn);
+		}
+		return true;
+	}
+
+	/**
+	 * Release a page pinned by <tt>pinPage()</tt>.
+	 *
+	 * @param vpn the virtual page to unpin.
+	 */
+	protected void unpinPage(int vpn) {
+	}
+
+	/**
+	 * Pin the page holding a futex word. The word is only read, so the page
+	 * is not pinned for writing, which would mark it dirty.
+	 *
+	 * @param vpn the virtual page to pin.
+	 * @return the physical page number, or -1 if the page does not exist.
+	 */
+	protected int pinFutexPage(int vpn) {
+		return pinPage(vpn, false);
 	}
 
 	private int handleUnlink(int vaname) {
@@ -610,9 +1433,14 @@ public class UserProcess {
 		if (filename == null || filename == "")
 			return -1;
 
+		if (UserKernel.execCache != null)
+			UserKernel.execCache.invalidate(filename);
 		Boolean onSuccess = ThreadedKernel.fileSystem.remove(filename);
-		if (onSuccess)
+		if (onSuccess) {
+			if (UserKernel.readahead)
+				ReadaheadFile.invalidate(filename);
 			return 0;
+		}
 		return -1;
 	}
 
@@ -623,53 +1451,78 @@ public class UserProcess {
 			return -1;
 		}
 
-		if (argc < 0)
+		// each argument needs a pointer and a terminator in the one page
+		// that load() gives them, so more than this can never fit
+		if (argc < 0 || argc > pageSize / 5)
 			return -1;
 
 		byte[] argumentList = new byte[4 * argc];
+		if (readVirtualMemory(argv, argumentList) != argumentList.length)
+			return -1;
 		String[] arguments = new String[argc];
 		for (int i = 0; i < argc; i++) {
-			int bytesRead = readVirtualMemory(argv + i * 4, argumentList, i * 4, 4);
-			String argumentEntry = readVirtualMemoryString(Lib.bytesToInt(argumentList, i * 4), 256);
-			arguments[i] = argumentEntry;
+			arguments[i] = readVirtualMemoryString(Lib.bytesToInt(argumentList, i * 4), 256);
+			if (arguments[i] == null)
+				return -1;
 		}
 
+		if (UserKernel.processTable.getNumChildren(currProcessID)
+				>= getLimit(rlimitChildren))
+			return -1;
+
 		UserProcess childProcess = UserProcess.newUserProcess();
-		children.put(processID, childProcess);
-		childProcess.currProcessID = processID;
-		childProcess.parent = this;
-		numProcess++;
-		processID++;
+		// the child starts with its parent's limits
+		childProcess.softLimits = softLimits.clone();
+		childProcess.hardLimits = hardLimits.clone();
+		childProcess.fileTable.setLimit(softLimits[rlimitFiles]);
+		int pid = UserKernel.processTable.add(childProcess, this);
+		// the child reads and writes wherever the parent does, so that a
+		// shell can connect children with a pipe or send their output to a
+		// file; the two descriptors share their file position with the
+		// parent's. A descriptor the parent has closed is left on the console.
+		for (int fd = 0; fd <= 1; fd++) {
+			if (fileTable.get(fd) != null)
+				childProcess.fileTable.inherit(fileTable, fd);
+		}
 		if (childProcess.execute(filename, arguments))
-			return processID - 1;
-		else 
-			return -1;
+			return pid;
+
+		childProcess.fileTable.closeAll();
+		UserKernel.processTable.remove(pid);
+		return -1;
 	}
 
+	/**
+	 * Handle the join() system call. A <i>pid</i> of -1 waits for whichever
+	 * child exits first, and returns its process ID instead of 1 or 0.
+	 */
 	private int handleJoin(int pid, int saddr){
-		if(!children.containsKey(pid))
-			return -1;
 		int maxVA = numPages * pageSize;
-		if(saddr < 0 || saddr >= maxVA)
+		if(saddr < 0 || saddr > maxVA - 4)
 			return -1;
-		UserProcess childProcess = children.get(pid);
-		childProcess.thread.join();
-		children.remove(pid);
-		if(!exitStatus.containsKey(pid) || exitStatus.get(pid) == -1)
-			return 0;
-		int childStatus = exitStatus.get(pid);
-		exitStatus.remove(pid);
-		String stringStatus = "" + childStatus;
-		byte [] buffer = stringStatus.getBytes();
-		writeVirtualMemory(saddr, buffer);
-		return 1;
+		ProcessTable.ExitStatus child = UserKernel.processTable.join(
+				currProcessID, pid);
+		if (child == null)
+			return -1;
+		if (writeVirtualMemory(saddr, Lib.bytesFromInt(child.status)) != 4)
+			return -1;
+		if (pid == -1)
+			return child.pid;
+		return (child.status == -1) ? 0 : 1;
 	}
 	
 
 	private static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
 			syscallJoin = 3, syscallCreate = 4, syscallOpen = 5,
 			syscallRead = 6, syscallWrite = 7, syscallClose = 8,
-			syscallUnlink = 9;
+			syscallUnlink = 9, syscallDup = 14,
+			syscallPipe = 15, syscallReadv = 16, syscallWritev = 17,
+			syscallAioRead = 18, syscallAioWrite = 19, syscallAioWait = 20,
+			syscallAioPoll = 21, syscallThreadCreate = 22,
+			syscallThreadJoin = 23, syscallThreadExit = 24,
+			syscallFutexWait = 25, syscallFutexWake = 26, syscallSleep = 30,
+			syscallGetTime = 31, syscallPoll = 32, syscallGetRusage = 33,
+			syscallGetRlimit = 34, syscallSetRlimit = 35;
 
 	/**
 	 * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -723,6 +1576,86 @@ public class UserProcess {
 	 * <td>9</td>
 	 * <td><tt>int  unlink(char *name);</tt></td>
 	 * </tr>
+	 * <tr>
+	 * <td>14</td>
+	 * <td><tt>int  dup(int fd);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>15</td>
+	 * <td><tt>int  pipe(int *fds);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>16</td>
+	 * <td><tt>int  readv(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>17</td>
+	 * <td><tt>int  writev(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>18</td>
+	 * <td><tt>int  aio_read(int fd, char *buffer, int size);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>19</td>
+	 * <td><tt>int  aio_write(int fd, char *buffer, int size);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>20</td>
+	 * <td><tt>int  aio_wait(int id);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>21</td>
+	 * <td><tt>int  aio_poll(int id);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>22</td>
+	 * <td><tt>int  thread_create(void (*func)(int), int arg);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>23</td>
+	 * <td><tt>int  thread_join(int tid, int *status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>24</td>
+	 * <td><tt>void thread_exit(int status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>25</td>
+	 * <td><tt>int  futex_wait(int *addr, int expected, int timeout);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>26</td>
+	 * <td><tt>int  futex_wake(int *addr, int count);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>30</td>
+	 * <td><tt>int  sleep(int ticks);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>31</td>
+	 * <td><tt>int  gettime();</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>32</td>
+	 * <td><tt>int  poll(struct pollfd *fds, int nfds, int timeout);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>33</td>
+	 * <td><tt>int  getrusage(int *usage);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>34</td>
+	 * <td><tt>int  getrlimit(int resource, int *limits);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>35</td>
+	 * <td><tt>int  setrlimit(int resource, int soft, int hard);</tt></td>
+	 * </tr>
 	 * </table>
 	 * 
 	 * @param syscall the syscall number.
@@ -754,6 +1687,45 @@ public class UserProcess {
 				return handleExec(a0, a1, a2);
 			case syscallJoin:
 				return handleJoin(a0, a1);
+			case syscallDup:
+				return handleDup(a0);
+			case syscallPipe:
+				return handlePipe(a0);
+			case syscallReadv:
+				return handleVector(a0, a1, a2, true);
+			case syscallWritev:
+				return handleVector(a0, a1, a2, false);
+			case syscallAioRead:
+				return handleAsyncIO(a0, a1, a2, true);
+			case syscallAioWrite:
+				return handleAsyncIO(a0, a1, a2, false);
+			case syscallAioWait:
+				return handleAioWait(a0);
+			case syscallAioPoll:
+				return handleAioPoll(a0);
+			case syscallThreadCreate:
+				return handleThreadCreate(a0, a1);
+			case syscallThreadJoin:
+				return handleThreadJoin(a0, a1);
+			case syscallFutexWait:
+				return handleFutexWait(a0, a1, a2);
+			case syscallFutexWake:
+				return handleFutexWake(a0, a1);
+			case syscallSleep:
+				return handleSleep(a0);
+			case syscallGetTime:
+				return handleGetTime();
+			case syscallPoll:
+				return handlePoll(a0, a1, a2);
+			case syscallGetRusage:
+				return handleGetRusage(a0);
+			case syscallGetRlimit:
+				return handleGetRlimit(a0, a1);
+			case syscallSetRlimit:
+				return handleSetRlimit(a0, a1, a2);
+			case syscallThreadExit:
+				leaveThread(a0);
+				return 0;
 			default:
 				handleExit(-1);
 				Lib.debug(dbgProcess, "Unknown syscall " + syscall);
@@ -762,6 +1734,32 @@ public class UserProcess {
 		return 0;
 	}
 
+	/**
+	 * Handle a syscall exception as <tt>handleException()</tt> does, counting
+	 * it in <tt>syscallStats</tt>. <tt>exit()</tt> does not return, so it is
+	 * counted before it is made.
+	 */
+	private void handleCountedSyscall() {
+		Processor processor = Machine.processor();
+		int syscall = processor.readRegister(Processor.regV0);
+		int[] args = { processor.readRegister(Processor.regA0),
+				processor.readRegister(Processor.regA1),
+				processor.readRegister(Processor.regA2),
+				processor.readRegister(Processor.regA3) };
+		if (syscallStats == null)
+			syscallStats = new SyscallStats(currProcessID);
+
+		long start = Machine.timer().getTime();
+		if (syscall == syscallExit)
+			syscallStats.record(syscall, args, start, 0);
+		int result = handleSyscall(syscall, args[0], args[1], args[2], args[3]);
+		if (syscall != syscallExit)
+			syscallStats.record(syscall, args, start, result);
+
+		processor.writeRegister(Processor.regV0, result);
+		processor.advancePC();
+	}
+
 	/**
 	 * Handle a user exception. Called by <tt>UserKernel.exceptionHandler()</tt>
 	 * . The <i>cause</i> argument identifies which exception occurred; see the
@@ -772,8 +1770,17 @@ public class UserProcess {
 	public void handleException(int cause) {
 		Processor processor = Machine.processor();
 
+		// another thread has ended the process
+		if (exiting)
+			leaveThread(exitStatus);
+		enforceLimits();
+
 		switch (cause) {
 			case Processor.exceptionSyscall:
+				if (SyscallStats.isEnabled()) {
+					handleCountedSyscall();
+					break;
+				}
 				int result = handleSyscall(processor.readRegister(Processor.regV0),
 						processor.readRegister(Processor.regA0),
 						processor.readRegister(Processor.regA1),
@@ -806,6 +1813,33 @@ public class UserProcess {
 	/** The thread that executes the user-level program. */
 	protected UThread thread;
 
+	/** The threads running in this process, by thread ID. */
+	private HashMap<Integer, UThread> threads = new HashMap<Integer, UThread>();
+
+	/** The status of threads that have exited but not been joined. */
+	private HashMap<Integer, Integer> threadStatus = new HashMap<Integer, Integer>();
+
+	private int nextThreadID = 1;
+
+	private Lock threadLock = new Lock();
+
+	private Condition threadExited = new Condition(threadLock);
+
+	/**
+	 * Which of the stacks for created threads are in use. There is one for
+	 * each thread a process may have besides its first, set by
+	 * <tt>UserProcess.maxThreads</tt> in <tt>nachos.conf</tt>.
+	 */
+	private boolean[] stackSlots = new boolean[Math.max(0,
+			Config.getInteger("UserProcess.maxThreads", 1) - 1)];
+
+	/** The first page of the stacks for created threads. */
+	private int threadStacksVPN;
+
+	private boolean exiting = false;
+
+	private int exitStatus;
+
 	private int initialPC, initialSP;
 
 	private int argc, argv;
@@ -814,18 +1848,85 @@ public class UserProcess {
 
 	private static final char dbgProcess = 'a';
 
-	private ArrayList<OpenFile> OpenFileList = new ArrayList<OpenFile>();
+	private FileTable fileTable;
 
-	private int openCount = 0;
+	/**
+	 * The resources whose use is limited, and the value of a limit that does
+	 * not limit.
+	 */
+	protected static final int rlimitFrames = 0, rlimitSwap = 1,
+			rlimitFiles = 2, rlimitChildren = 3, numLimits = 4,
+			unlimited = Integer.MAX_VALUE;
 
-	static int processID = 0;
-	protected int currProcessID;
+	/**
+	 * The lowest limits a process may have: a program needs a frame for an
+	 * instruction and one for the data it touches, and always has its
+	 * standard input and output open.
+	 */
+	private static final int[] minLimits = { 2, 0, 2, 0 };
+
+	/**
+	 * The limits of the first process, which every other inherits through
+	 * exec(), from <tt>UserProcess.maxFrames</tt>,
+	 * <tt>UserProcess.maxSwapPages</tt>, <tt>UserProcess.maxOpenFiles</tt>
+	 * and <tt>UserProcess.maxChildren</tt> in <tt>nachos.conf</tt>, and the
+	 * same keys ending in <tt>Hard</tt>.
+	 */
+	private static final int[] defaultSoftLimits = new int[numLimits],
+			defaultHardLimits = new int[numLimits];
+
+	static {
+		String[] keys = { "UserProcess.maxFrames", "UserProcess.maxSwapPages",
+				"UserProcess.maxOpenFiles", "UserProcess.maxChildren" };
+		for (int r = 0; r < numLimits; r++) {
+			int def = (r == rlimitFiles) ? 16 : -1;
+			defaultHardLimits[r] = configLimit(r, keys[r], true, def);
+			defaultSoftLimits[r] = Math.min(defaultHardLimits[r],
+					configLimit(r, keys[r], false, def));
+		}
+	}
 
-	private UserProcess parent = null;
+	/** The limits that are enforced, one per resource. */
+	private int[] softLimits = defaultSoftLimits.clone();
 
-	static int numProcess = 0;
+	/** The highest each soft limit may be raised to. */
+	private int[] hardLimits = defaultHardLimits.clone();
 
-	private HashMap<Integer, Integer> exitStatus = new HashMap<Integer, Integer>();
+	/** The ticks this process has spent running user code and in the kernel. */
+	private long userTicks = 0, kernelTicks = 0;
 
-	HashMap<Integer, UserProcess> children = new HashMap<Integer, UserProcess>();
+	/** When the running thread of this process was last charged. */
+	private long lastChargeTime;
+
+	/** Asynchronous requests not yet collected by aio_wait(), by id. */
+	private HashMap<Integer, AsyncIO.Request> aioRequests = new HashMap<Integer, AsyncIO.Request>();
+
+	private int nextAioId = 0;
+
+	/** The most asynchronous requests a process may have outstanding. */
+	private static final int maxAioRequests = 16;
+
+	/** The most buffers one readv() or writev() may name. */
+	private static final int maxIovecs = 1024;
+
+	/** The fields of the array filled in by <tt>getrusage()</tt>. */
+	private static final int rusageUserTicks = 0, rusageKernelTicks = 1,
+			rusageFrames = 2, rusageSwapPages = 3, rusageFiles = 4,
+			rusageChildren = 5, rusageNumFields = 6;
+
+	/** The size of a <tt>struct pollfd</tt>, and its event bits. */
+	private static final int pollfdSize = 8, pollIn = 0x1, pollOut = 0x4,
+			pollInvalid = 0x20;
+
+	/** The number of bytes a pipe buffers, from <tt>UserProcess.pipeSize</tt>. */
+	private static final int pipeSize = Config.getInteger(
+			"UserProcess.pipeSize", pageSize);
+
+	private int openCount = 0;
+
+	/** The syscalls made so far, when they are being counted. */
+	private SyscallStats syscallStats = null;
+
+	/** The process ID, assigned by <tt>ProcessTable.add()</tt>. */
+	protected int currProcessID;
 }
@@ -0,0 +1,176 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed cache of swapped-out pages that sits in front of the swap
+ * device. Evicted pages are compressed into a pool of bounded size and only
+ * written to the swap device when the pool has to make room, least recently
+ * stored first. Pages that are entirely zero take no pool space, and pages
+ * that do not compress well go straight to the swap device.
+ *
+ * <p>
+ * Enabled by setting <tt>VMKernel.compressedSwapBytes</tt> in
+ * <tt>nachos.conf</tt> to the size of the pool.
+ */
+public class CompressedSwapCache {
+	/**
+	 * Allocate a new compressed swap cache.
+	 *
+	 * @param capacity the maximum number of compressed bytes to hold.
+	 * @param swapDevice the device that pages are written back to.
+	 */
+	public CompressedSwapCache(int capacity, SwapDevice swapDevice) {
+		this.capacity = capacity;
+		this.swapDevice = swapDevice;
+	}
+
+	/**
+	 * Compress a page and keep it under the specified swap slot, writing older
+	 * pages back to the swap device if the pool is full.
+	 *
+	 * @param spn    the swap slot the page belongs to.
+	 * @param memory the array holding the page.
+	 * @param offset the offset of the page in <i>memory</i>.
+	 * @return <tt>true</tt> if the page was stored, or <tt>false</tt> if it
+	 *         does not compress well enough and must be written to the swap
+	 *         device by the caller.
+	 */
+	public boolean store(int spn, byte[] memory, int offset) {
+		invalidate(spn);
+
+		byte[] compressed = compress(memory, offset);
+		if (compressed == null || compressed.length > capacity) {
+			numRejected++;
+			return false;
+		}
+
+		while (usedBytes + compressed.length > capacity)
+			writeBackOldest();
+
+		pool.put(spn, compressed);
+		usedBytes += compressed.length;
+		numStored++;
+		return true;
+	}
+
+	/**
+	 * Copy the page kept under the specified swap slot into memory and drop
+	 * it from the pool.
+	 *
+	 * @param spn    the swap slot to load.
+	 * @param memory the array to load the page into.
+	 * @param offset the offset in <i>memory</i> of the page.
+	 * @return <tt>true</tt> if the page was in the pool, or <tt>false</tt> if
+	 *         the caller must read it from the swap device.
+	 */
+	public boolean load(int spn, byte[] memory, int offset) {
+		byte[] compressed = pool.remove(spn);
+		if (compressed == null) {
+			numMisses++;
+			return false;
+		}
+
+		usedBytes -= compressed.length;
+		decompress(compressed, memory, offset);
+		numHits++;
+		return true;
+	}
+
+	/**
+	 * Forget the page kept under the specified swap slot, if any.
+	 *
+	 * @param spn the swap slot that is being freed.
+	 */
+	public void invalidate(int spn) {
+		byte[] compressed = pool.remove(spn);
+		if (compressed != null)
+			usedBytes -= compressed.length;
+	}
+
+	public String toString() {
+		return "stored " + numStored + ", rejected " + numRejected
+				+ ", hits " + numHits + ", misses " + numMisses
+				+ ", write-backs " + numWriteBacks + ", pool " + usedBytes
+				+ "/" + capacity + " bytes";
+	}
+
+	private void writeBackOldest() {
+		Iterator<Map.Entry<Integer, byte[]>> oldest = pool.entrySet().iterator();
+		Map.Entry<Integer, byte[]> entry = oldest.next();
+		oldest.remove();
+		usedBytes -= entry.getValue().length;
+
+		byte[] page = new byte[pageSize];
+		decompress(entry.getValue(), page, 0);
+		swapDevice.write(entry.getKey(), page, 0, 1);
+		numWriteBacks++;
+	}
+
+	private byte[] compress(byte[] memory, int offset) {
+		boolean zero = true;
+		for (int i = 0; i < pageSize && zero; i++)
+			zero = (memory[offset + i] == 0);
+		if (zero)
+			return zeroPage;
+
+		deflater.reset();
+		deflater.setInput(memory, offset, pageSize);
+		deflater.finish();
+		int length = deflater.deflate(deflateBuffer);
+		if (!deflater.finished() || length > maxCompressedSize)
+			return null;
+
+		byte[] compressed = new byte[length];
+		System.arraycopy(deflateBuffer, 0, compressed, 0, length);
+		return compressed;
+	}
+
+	private void decompress(byte[] compressed, byte[] memory, int offset) {
+		if (compressed.length == 0) {
+			java.util.Arrays.fill(memory, offset, offset + pageSize, (byte) 0);
+			return;
+		}
+
+		inflater.reset();
+		inflater.setInput(compressed);
+		try {
+			Lib.assertTrue(inflater.inflate(memory, offset, pageSize) == pageSize);
+		}
+		catch (DataFormatException e) {
+			Lib.assertNotReached("corrupt compressed swap page");
+		}
+	}
+
+	/** Pages that compress to more than this are not worth keeping. */
+	private static final int maxCompressedSize = Processor.pageSize * 3 / 4;
+
+	private static final int pageSize = Processor.pageSize;
+
+	private static final byte[] zeroPage = new byte[0];
+
+	/** Compressed pages by swap slot, least recently stored first. */
+	private LinkedHashMap<Integer, byte[]> pool = new LinkedHashMap<Integer, byte[]>();
+
+	private int capacity;
+
+	private int usedBytes = 0;
+
+	private SwapDevice swapDevice;
+
+	private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	private Inflater inflater = new Inflater();
+
+	private byte[] deflateBuffer = new byte[pageSize * 2];
+
+	private int numStored = 0, numRejected = 0, numHits = 0, numMisses = 0,
+			numWriteBacks = 0;
+}
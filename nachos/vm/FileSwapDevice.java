@@ -0,0 +1,32 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * A swap device kept in a file of the Nachos file system. Every transfer is
+ * a single positional read or write, and pays the file system's delay.
+ */
+public class FileSwapDevice implements SwapDevice {
+	/**
+	 * Allocate a new swap device backed by the specified file.
+	 *
+	 * @param file the file to keep the swap slots in.
+	 */
+	public FileSwapDevice(OpenFile file) {
+		this.file = file;
+	}
+
+	public void read(int spn, byte[] buf, int offset, int numPages) {
+		file.read(spn * pageSize, buf, offset, numPages * pageSize);
+	}
+
+	public void write(int spn, byte[] buf, int offset, int numPages) {
+		file.write(spn * pageSize, buf, offset, numPages * pageSize);
+	}
+
+	public void close() {
+		file.close();
+	}
+
+	private OpenFile file;
+}
@@ -0,0 +1,110 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A swap device kept in a host file that is mapped into memory, so that a
+ * transfer is a plain memory copy. Instead of the file system's fixed delay,
+ * a transfer of <i>n</i> pages waits <tt>latency + n * ticksPerPage</tt>
+ * ticks, which models anything from a RAM disk (both zero) to a slow disk.
+ *
+ * <p>
+ * The mapping starts at <tt>initialPages</tt> slots and doubles whenever a
+ * slot beyond the end is written. The host file is deleted when Nachos
+ * exits.
+ */
+public class MappedSwapDevice implements SwapDevice {
+	/**
+	 * Allocate a new memory-mapped swap device.
+	 *
+	 * @param file         the host file to map; its contents are discarded.
+	 * @param initialPages the number of slots to map at first.
+	 * @param latency      the ticks every transfer waits.
+	 * @param ticksPerPage the additional ticks per page transferred.
+	 */
+	public MappedSwapDevice(File file, int initialPages, int latency,
+			int ticksPerPage) throws IOException {
+		this.latency = latency;
+		this.ticksPerPage = ticksPerPage;
+
+		file.deleteOnExit();
+		hostFile = new RandomAccessFile(file, "rw");
+		hostFile.setLength(0);
+		channel = hostFile.getChannel();
+		map(Math.max(initialPages, 1));
+	}
+
+	public void read(int spn, byte[] buf, int offset, int numPages) {
+		delay(numPages);
+
+		// never written slots read as zeroes, like the end of a file
+		int available = Math.max(0, Math.min(numPages, numSlots - spn));
+		if (available > 0) {
+			ByteBuffer slots = mapping.duplicate();
+			slots.position(spn * pageSize);
+			slots.get(buf, offset, available * pageSize);
+		}
+		java.util.Arrays.fill(buf, offset + available * pageSize, offset
+				+ numPages * pageSize, (byte) 0);
+	}
+
+	public void write(int spn, byte[] buf, int offset, int numPages) {
+		delay(numPages);
+
+		if (spn + numPages > numSlots) {
+			int slots = numSlots;
+			while (spn + numPages > slots)
+				slots *= 2;
+			map(slots);
+		}
+
+		ByteBuffer slots = mapping.duplicate();
+		slots.position(spn * pageSize);
+		slots.put(buf, offset, numPages * pageSize);
+	}
+
+	public void close() {
+		try {
+			channel.close();
+			hostFile.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	private void map(int slots) {
+		try {
+			// mapping past the end of the file extends it
+			mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					(long) slots * pageSize);
+			numSlots = slots;
+		}
+		catch (IOException e) {
+			Lib.assertNotReached("could not map swap: " + e.getMessage());
+		}
+	}
+
+	private void delay(int numPages) {
+		int ticks = latency + numPages * ticksPerPage;
+		if (ticks > 0)
+			ThreadedKernel.alarm.waitUntil(ticks);
+	}
+
+	private RandomAccessFile hostFile;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer mapping;
+
+	private int numSlots;
+
+	private int latency, ticksPerPage;
+}
@@ -0,0 +1,131 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.userprog.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Streams the page references made by user programs to a binary trace file
+ * on the host, so that replacement policies can be compared offline with
+ * <tt>nachos.vmsim.Simulator</tt>.
+ *
+ * <p>
+ * The file starts with the magic number <tt>traceMagic</tt>, the format
+ * version and the page size, each a 4-byte big-endian int. Every record after
+ * that is three unsigned LEB128 varints: the ticks since the previous record,
+ * the process ID, and <tt>(vpn &lt;&lt; 2) | kind</tt>, where <i>kind</i> is
+ * one of the <tt>kindZZZ</tt> constants. Process exits are recorded with a
+ * vpn of 0 so that the simulator can drop the pages of the dead process.
+ */
+public class PageTraceRecorder implements Processor.ReferenceTracer {
+	/**
+	 * Create a recorder that writes to the specified host file, replacing it
+	 * if it exists.
+	 *
+	 * @param fileName the name of the trace file on the host.
+	 */
+	public PageTraceRecorder(String fileName) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 1 << 16));
+		out.writeInt(traceMagic);
+		out.writeInt(traceVersion);
+		out.writeInt(Processor.pageSize);
+		lastTick = Machine.timer().getTime();
+	}
+
+	/**
+	 * Record a reference made by the current process. Called by the processor
+	 * after each successful translation.
+	 */
+	public void reference(int vpn, boolean writing) {
+		UserProcess process = UserKernel.currentProcess();
+		if (process == null)
+			return;
+
+		record(process.getProcessID(), vpn, writing ? kindWrite : kindRead);
+	}
+
+	/**
+	 * Record a page fault taken by the specified process.
+	 *
+	 * @param pid the process that faulted.
+	 * @param vpn the page that was not resident.
+	 */
+	public void recordFault(int pid, int vpn) {
+		record(pid, vpn, kindFault);
+	}
+
+	/**
+	 * Record that the specified process released its address space.
+	 *
+	 * @param pid the process that exited.
+	 */
+	public void recordExit(int pid) {
+		record(pid, 0, kindExit);
+	}
+
+	/**
+	 * Flush and close the trace file. Further records are dropped.
+	 */
+	public void close() {
+		if (out == null)
+			return;
+
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+		}
+		Lib.debug(dbgVM, "PageTraceRecorder: " + numRecords + " records");
+		out = null;
+	}
+
+	private void record(int pid, int vpn, int kind) {
+		if (out == null)
+			return;
+
+		long tick = Machine.timer().getTime();
+		try {
+			writeVarint(tick - lastTick);
+			writeVarint(pid);
+			writeVarint(((long) vpn << 2) | kind);
+		}
+		catch (IOException e) {
+			Lib.debug(dbgVM, "PageTraceRecorder: write failed, tracing stopped");
+			close();
+			return;
+		}
+		lastTick = tick;
+		numRecords++;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/** The first four bytes of every trace file ("NPTR"). */
+	public static final int traceMagic = 0x4E505452;
+
+	/** The version of the trace format written by this class. */
+	public static final int traceVersion = 1;
+
+	/** Record kinds, stored in the low two bits of the third field. */
+	public static final int kindRead = 0, kindWrite = 1, kindFault = 2,
+			kindExit = 3;
+
+	private DataOutputStream out;
+
+	private long lastTick;
+
+	private long numRecords = 0;
+
+	private static final char dbgVM = 'v';
+}
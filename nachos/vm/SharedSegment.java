@@ -0,0 +1,124 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+
+/**
+ * A shared memory segment: pages that several processes map into their
+ * address spaces at once, so that what one writes the others read without
+ * a copy. Each page of a segment lives in one frame, mapped by every process
+ * that has touched it, or in one swap slot, and not in any process.
+ *
+ * <p>
+ * Segments are named by an integer key, and key 0 always makes a new one.
+ * A segment is freed when the last process attached to it detaches, or, if
+ * it is not attached, when the last process that got it exits. At most
+ * <tt>SharedSegment.maxSegments</tt> segments of at most
+ * <tt>SharedSegment.maxPages</tt> pages each may exist at once. The caller
+ * must hold the VM lock of <tt>VMProcess</tt>.
+ */
+public class SharedSegment {
+	private SharedSegment(int id, int key, int numPages) {
+		this.id = id;
+		this.key = key;
+		this.numPages = numPages;
+		frames = new int[numPages];
+		swapPages = new int[numPages];
+		java.util.Arrays.fill(frames, -1);
+		java.util.Arrays.fill(swapPages, -1);
+	}
+
+	/**
+	 * Return the segment with a key, creating it if there is none.
+	 *
+	 * @param key      the key, or 0 for a new segment with no key.
+	 * @param numPages the size of the segment; an existing segment must be
+	 *                 at least this large.
+	 * @return the segment, or <tt>null</tt> if it is too small, too large or
+	 *         too many segments exist.
+	 */
+	static SharedSegment get(int key, int numPages) {
+		SharedSegment segment = (key == 0) ? null : byKey.get(key);
+		if (segment != null)
+			return (numPages <= segment.numPages) ? segment : null;
+
+		if (numPages <= 0 || numPages > maxPages || byId.size() >= maxSegments)
+			return null;
+		segment = new SharedSegment(nextId++, key, numPages);
+		byId.put(segment.id, segment);
+		if (key != 0)
+			byKey.put(key, segment);
+		numCreated++;
+		return segment;
+	}
+
+	/**
+	 * Return the segment with an id, or <tt>null</tt> if there is none.
+	 */
+	static SharedSegment lookup(int id) {
+		return byId.get(id);
+	}
+
+	/**
+	 * Forget a segment whose last process has detached. Its frames and swap
+	 * slots must already have been given up.
+	 */
+	static void remove(SharedSegment segment) {
+		byId.remove(segment.id);
+		if (segment.key != 0)
+			byKey.remove(segment.key);
+	}
+
+	/**
+	 * Return <tt>true</tt> if any segment has been created.
+	 */
+	static boolean wasUsed() {
+		return numCreated > 0;
+	}
+
+	/**
+	 * Return a line describing the segments.
+	 */
+	static String getStats() {
+		return "created " + numCreated + ", existing " + byId.size();
+	}
+
+	/** The id returned by <tt>shmget()</tt>. */
+	final int id;
+
+	final int key;
+
+	final int numPages;
+
+	/** The frame holding each page, or -1 if it is not resident. */
+	int[] frames;
+
+	/**
+	 * The swap slot holding each page that is not resident, or -1 if the page
+	 * has never been written out and is zero.
+	 */
+	int[] swapPages;
+
+	/** The number of attachments, over all processes. */
+	int numAttached = 0;
+
+	/**
+	 * The number of processes that have got this segment from
+	 * <tt>shmget()</tt> and not yet exited.
+	 */
+	int numHolders = 0;
+
+	private static HashMap<Integer, SharedSegment> byId = new HashMap<Integer, SharedSegment>();
+
+	private static HashMap<Integer, SharedSegment> byKey = new HashMap<Integer, SharedSegment>();
+
+	private static int nextId = 0;
+
+	private static int numCreated = 0;
+
+	static final int maxSegments = Config.getInteger(
+			"SharedSegment.maxSegments", 16);
+
+	static final int maxPages = Config.getInteger("SharedSegment.maxPages", 64);
+}
@@ -0,0 +1,107 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A swap device that spreads slots round-robin over several other swap
+ * devices: slot <i>s</i> is slot <i>s / n</i> of stripe <i>s % n</i>. A
+ * transfer of a run of slots becomes one transfer per stripe touched, and
+ * those are issued from separate threads so that their delays overlap.
+ */
+public class StripedSwapDevice implements SwapDevice {
+	/**
+	 * Allocate a new striped swap device.
+	 *
+	 * @param stripes the devices to spread the slots over.
+	 */
+	public StripedSwapDevice(SwapDevice[] stripes) {
+		Lib.assertTrue(stripes.length > 0);
+		this.stripes = stripes;
+	}
+
+	public void read(int spn, byte[] buf, int offset, int numPages) {
+		transfer(spn, buf, offset, numPages, false);
+	}
+
+	public void write(int spn, byte[] buf, int offset, int numPages) {
+		transfer(spn, buf, offset, numPages, true);
+	}
+
+	public void close() {
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i].close();
+	}
+
+	private void transfer(int spn, byte[] buf, int offset, int numPages,
+			boolean writing) {
+		int n = stripes.length;
+		if (numPages == 1) {
+			if (writing)
+				stripes[spn % n].write(spn / n, buf, offset, 1);
+			else
+				stripes[spn % n].read(spn / n, buf, offset, 1);
+			return;
+		}
+
+		// the slots of one stripe are consecutive in that stripe, but every
+		// n-th page in buf, so each stripe gets its own staging buffer
+		int numStripes = Math.min(n, numPages);
+		StripeTransfer[] parts = new StripeTransfer[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			int first = spn + i;
+			int count = (numPages - i + n - 1) / n;
+			parts[i] = new StripeTransfer(stripes[first % n], first / n, count,
+					writing);
+			if (writing) {
+				for (int p = 0; p < count; p++)
+					System.arraycopy(buf, offset + (i + p * n) * pageSize,
+							parts[i].pages, p * pageSize, pageSize);
+			}
+		}
+
+		KThread[] helpers = new KThread[numStripes];
+		for (int i = 1; i < numStripes; i++) {
+			helpers[i] = new KThread(parts[i]).setName("swap stripe " + i);
+			helpers[i].fork();
+		}
+		parts[0].run();
+		for (int i = 1; i < numStripes; i++)
+			helpers[i].join();
+
+		if (!writing) {
+			for (int i = 0; i < numStripes; i++) {
+				for (int p = 0; p < parts[i].count; p++)
+					System.arraycopy(parts[i].pages, p * pageSize, buf, offset
+							+ (i + p * n) * pageSize, pageSize);
+			}
+		}
+	}
+
+	private static class StripeTransfer implements Runnable {
+		StripeTransfer(SwapDevice stripe, int spn, int count, boolean writing) {
+			this.stripe = stripe;
+			this.spn = spn;
+			this.count = count;
+			this.writing = writing;
+			pages = new byte[count * pageSize];
+		}
+
+		public void run() {
+			if (writing)
+				stripe.write(spn, pages, 0, count);
+			else
+				stripe.read(spn, pages, 0, count);
+		}
+
+		SwapDevice stripe;
+
+		int spn, count;
+
+		boolean writing;
+
+		byte[] pages;
+	}
+
+	private SwapDevice[] stripes;
+}
@@ -0,0 +1,45 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * A store for pages that have been evicted from physical memory, addressed
+ * by swap slot. Each slot holds one page; a transfer moves a run of
+ * consecutive slots to or from a contiguous region of a byte array.
+ *
+ * <p>
+ * <tt>VMKernel</tt> picks the backend named by <tt>VMKernel.swapDevice</tt>
+ * in <tt>nachos.conf</tt>: <tt>file</tt> (the default), <tt>mapped</tt> or
+ * <tt>striped</tt>.
+ */
+public interface SwapDevice {
+	/**
+	 * Read a run of pages from swap. The calling thread may block until the
+	 * transfer is complete.
+	 *
+	 * @param spn      the first swap slot to read.
+	 * @param buf      the array to read the pages into.
+	 * @param offset   the offset in <i>buf</i> of the first page.
+	 * @param numPages the number of consecutive slots to read.
+	 */
+	public void read(int spn, byte[] buf, int offset, int numPages);
+
+	/**
+	 * Write a run of pages to swap. The calling thread may block until the
+	 * transfer is complete.
+	 *
+	 * @param spn      the first swap slot to write.
+	 * @param buf      the array holding the pages.
+	 * @param offset   the offset in <i>buf</i> of the first page.
+	 * @param numPages the number of consecutive slots to write.
+	 */
+	public void write(int spn, byte[] buf, int offset, int numPages);
+
+	/**
+	 * Release the resources held by this device. Its contents are lost.
+	 */
+	public void close();
+
+	/** The size of a swap slot. */
+	public static final int pageSize = Processor.pageSize;
+}
@@ -5,6 +5,8 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.io.IOException;
+
 /**
  * A kernel that can support multiple demand-paging user processes.
  */
@@ -22,7 +24,106 @@ public class VMKernel extends UserKernel {
 	 */
 	public void initialize(String[] args) {
 		super.initialize(args);
-		swapFile = ThreadedKernel.fileSystem.open("swap", true);
+		swapDevice = openSwapDevice();
+
+		int compressedSwapBytes = Config.getInteger("VMKernel.compressedSwapBytes", 0);
+		if (compressedSwapBytes > 0)
+			swapCache = new CompressedSwapCache(compressedSwapBytes, swapDevice);
+
+		mergeScanPages = Config.getInteger("VMKernel.mergeScanPages", 0);
+		mergeScanInterval = Config.getInteger("VMKernel.mergeScanInterval", 20000);
+		if (mergeScanPages > 0) {
+			KThread merger = new KThread(new Runnable() {
+				public void run() {
+					while (true) {
+						ThreadedKernel.alarm.waitUntil(mergeScanInterval);
+						VMProcess.mergeScan(mergeScanPages);
+					}
+				}
+			});
+			merger.setName("page merger");
+			boolean intStatus = Machine.interrupt().disable();
+			ThreadedKernel.scheduler.setPriority(merger, 0);
+			Machine.interrupt().restore(intStatus);
+			merger.fork();
+		}
+
+		processSwapInterval = Config.getInteger("VMKernel.processSwapInterval", 0);
+		processSwapIdleTicks = Config.getInteger("VMKernel.processSwapIdleTicks", 10000);
+		processSwapFreePages = Config.getInteger("VMKernel.processSwapFreePages",
+				Machine.processor().getNumPhysPages() / 4);
+		if (processSwapInterval > 0) {
+			KThread swapper = new KThread(new Runnable() {
+				public void run() {
+					while (true) {
+						ThreadedKernel.alarm.waitUntil(processSwapInterval);
+						VMProcess.swapOutIdleProcesses(processSwapFreePages,
+								processSwapIdleTicks);
+					}
+				}
+			});
+			swapper.setName("process swapper");
+			boolean intStatus = Machine.interrupt().disable();
+			ThreadedKernel.scheduler.setPriority(swapper, 0);
+			Machine.interrupt().restore(intStatus);
+			swapper.fork();
+		}
+
+		String traceFileName = Config.getString("VMKernel.traceFile");
+		if (traceFileName != null) {
+			try {
+				pageTrace = new PageTraceRecorder(traceFileName);
+				Machine.processor().setReferenceTracer(pageTrace);
+			}
+			catch (IOException e) {
+				Lib.debug(dbgVM, "could not open trace file " + traceFileName);
+			}
+		}
+	}
+
+	/**
+	 * Open the swap device named by <tt>VMKernel.swapDevice</tt>:
+	 * <tt>file</tt> keeps swap in the file <tt>swap</tt> of the Nachos file
+	 * system, <tt>mapped</tt> in a memory-mapped host file
+	 * (<tt>VMKernel.swapMappedFile</tt>, a temporary file by default) with
+	 * the latency model set by <tt>VMKernel.swapLatency</tt> and
+	 * <tt>VMKernel.swapTicksPerPage</tt>, and <tt>striped</tt> spreads swap
+	 * over <tt>VMKernel.swapStripes</tt> files <tt>swap0</tt>,
+	 * <tt>swap1</tt>, ...
+	 */
+	private static SwapDevice openSwapDevice() {
+		// swap has its own caching, keep it out of the buffer cache
+		FileSystem fileSystem = (bufferCache != null) ? bufferCache
+				.getFileSystem() : ThreadedKernel.fileSystem;
+		String type = Config.getString("VMKernel.swapDevice", "file");
+
+		if (type.equals("mapped")) {
+			String fileName = Config.getString("VMKernel.swapMappedFile");
+			try {
+				java.io.File file = (fileName != null) ? new java.io.File(fileName)
+						: java.io.File.createTempFile("nachos", ".swap");
+				return new MappedSwapDevice(file, Machine.processor()
+						.getNumPhysPages() * 4, Config.getInteger(
+						"VMKernel.swapLatency", 0), Config.getInteger(
+						"VMKernel.swapTicksPerPage", 0));
+			}
+			catch (IOException e) {
+				Lib.debug(dbgVM, "could not map swap file, using the file system");
+			}
+		}
+		else if (type.equals("striped")) {
+			SwapDevice[] stripes = new SwapDevice[Config.getInteger(
+					"VMKernel.swapStripes", 2)];
+			for (int i = 0; i < stripes.length; i++)
+				stripes[i] = new FileSwapDevice(fileSystem.open(
+						"swap" + i, true));
+			return new StripedSwapDevice(stripes);
+		}
+		else {
+			Lib.assertTrue(type.equals("file"), "unknown swap device " + type);
+		}
+
+		return new FileSwapDevice(fileSystem.open("swap", true));
 	}
 
 	/**
@@ -43,15 +144,72 @@ public class VMKernel extends UserKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		swapDevice.close();
+		if (pageTrace != null) {
+			Machine.processor().setReferenceTracer(null);
+			pageTrace.close();
+		}
 		super.terminate();
 	}
 
+	/**
+	 * Print the paging counters summed over all processes, and how the
+	 * physical frames are being used right now.
+	 */
+	public void printStats() {
+		super.printStats();
+		System.out.println("VM: " + vmStats);
+		System.out.println("VM frames: free " + getNumFreePages()
+				+ ", pinned " + VMProcess.getNumPinnedFrames()
+				+ ", dirty " + VMProcess.getNumDirtyFrames()
+				+ ", shared " + VMProcess.getNumSharedFrames());
+		if (mergeScanPages > 0)
+			System.out.println("Page merging: " + VMProcess.getMergeStats());
+		if (processSwapInterval > 0)
+			System.out.println("Process swapping: " + VMProcess.getProcessSwapStats());
+		if (swapCache != null)
+			System.out.println("Compressed swap: " + swapCache);
+		if (SharedSegment.wasUsed())
+			System.out.println("Shared memory: " + SharedSegment.getStats());
+	}
+
 	// dummy variables to make javac smarter
 	private static VMProcess dummy1 = null;
 
 	private static final char dbgVM = 'v';
 
-	public static OpenFile swapFile;
+	/** Where evicted pages are kept. */
+	public static SwapDevice swapDevice;
+
+	/**
+	 * The page reference recorder, or <tt>null</tt> unless
+	 * <tt>VMKernel.traceFile</tt> is set in <tt>nachos.conf</tt>.
+	 */
+	public static PageTraceRecorder pageTrace = null;
+
+	/**
+	 * The compressed cache in front of <tt>swapDevice</tt>, or <tt>null</tt>
+	 * unless <tt>VMKernel.compressedSwapBytes</tt> is set.
+	 */
+	public static CompressedSwapCache swapCache = null;
+
+	/** Paging counters summed over every process. */
+	public static VMStats vmStats = new VMStats(null);
+
+	/** Frames examined per pass of the page merging thread, or 0 if off. */
+	private static int mergeScanPages;
+
+	/** Ticks between passes of the page merging thread. */
+	private static int mergeScanInterval;
+
+	/** Ticks between passes of the process swapping thread, or 0 if off. */
+	private static int processSwapInterval;
+
+	/** How long a process must have been blocked to be swapped out. */
+	private static int processSwapIdleTicks;
+
+	/** Processes are swapped out while fewer frames than this are free. */
+	private static int processSwapFreePages;
 
 	//public static Condition condition;
 
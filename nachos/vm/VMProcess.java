@@ -2,6 +2,8 @@ package nachos.vm;
 
 import java.lang.management.MemoryNotificationInfo;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
 
 import javax.print.attribute.standard.PageRanges;
 
@@ -38,6 +40,28 @@ public class VMProcess extends UserProcess {
 		super.restoreState();
 	}
 
+	/**
+	 * Remember when this process blocked, so that the process swapper can
+	 * tell how long it has been idle. A process with several threads is only
+	 * blocked once all of them are.
+	 */
+	public void blocked() {
+		if (++numBlockedThreads < getNumThreads())
+			return;
+		blockedSince = Machine.timer().getTime();
+		isBlocked = true;
+	}
+
+	/**
+	 * The process is runnable again. If it was swapped out in the meantime,
+	 * the first page fault it takes reads its working set back in one batch;
+	 * that cannot be done here because interrupts are disabled.
+	 */
+	public void unblocked() {
+		numBlockedThreads--;
+		isBlocked = false;
+	}
+
 	/**
 	 * Initializes page tables for this process so that the executable can be
 	 * demand-paged.
@@ -46,14 +70,24 @@ public class VMProcess extends UserProcess {
 	 */
 	protected boolean loadSections() {
 		//return super.loadSections();
+			// a program that cannot fit in its frames and swap never runs
+			if (numPages > (long) getLimit(rlimitFrames) + getLimit(rlimitSwap)) {
+				closeCoff();
+				Lib.debug(dbgProcess, "\tframe and swap limits exceeded");
+				return false;
+			}
 			rwLock.acquire();
 			pageTable = new TranslationEntry[numPages];
+			mergedPages = new boolean[numPages];
 			for (int i = 0; i < numPages; i++) {
 
 				//int ppn = UserKernel.getNextFreePage();
 				pageTable[i] = new TranslationEntry(-1, -1, false, false, false, false);
 
 			}
+			attachedPages = new Attachment[numPages];
+			firstSharedVPN = numPages;
+			processes.add(this);
 			rwLock.release();
 			return true;
 	}
@@ -62,25 +96,317 @@ public class VMProcess extends UserProcess {
 	 * Release any resources allocated by <tt>loadSections()</tt>.
 	 */
 	protected void unloadSections() {
+		rwLock.acquire();
 		sLock.acquire();
-		//printPageTable();
-		//printIPT();
-		//System.out.println("The number of times swap is APPENDED " + numOfSwap);
-		//System.out.println("The number of times swap is ACCESSED " + numOfSwapAcess);
-
+		Lib.debug(dbgVM, "VMProcess.unloadSections: " + vmStats
+				+ ", resident " + getResidentPages());
 
-		//printPageTable();
+		while (!attachments.isEmpty())
+			detach(attachments.get(0));
+		releaseSegments();
 
 		for (int i = 0; i < pageTable.length; i++) {
 			if(pageTable[i].valid == true) {
 				pageTable[i].valid = false;
-				UserKernel.addFreePage(pageTable[i].ppn);
 				int idx = findIdexOfPPN(pageTable[i].ppn);
-				IPT.remove(idx);
+				if (IPT.get(idx).removeMapping(this, i)) {
+					UserKernel.addFreePage(pageTable[i].ppn);
+					IPT.remove(idx);
+				}
 				//cv.wake();
 			}
+			else if (pageTable[i].dirty) {
+				pageTable[i].dirty = false;
+				freeSwap(pageTable[i].vpn);
+			}
 		}
+		swappedPages = null;
+		swappedSpns = null;
+		processes.remove(this);
+		if (VMKernel.pageTrace != null)
+			VMKernel.pageTrace.recordExit(getProcessID());
+		framesReleased.wakeAll();
 		sLock.release();
+		rwLock.release();
+	}
+
+	/**
+	 * Handle the shmget() system call.
+	 */
+	private int handleShmGet(int key, int size) {
+		if (size <= 0)
+			return -1;
+		rwLock.acquire();
+		SharedSegment segment = SharedSegment.get(key, (size + pageSize - 1)
+				/ pageSize);
+		if (segment != null && !heldSegments.contains(segment)) {
+			heldSegments.add(segment);
+			segment.numHolders++;
+		}
+		rwLock.release();
+		return (segment == null) ? -1 : segment.id;
+	}
+
+	/**
+	 * Handle the shmat() system call. The segment is mapped at the first
+	 * gap left by a detached segment that it fits in, or else past the end of
+	 * the address space, which grows to hold it. Its pages are mapped as they
+	 * are touched.
+	 */
+	private int handleShmAt(int id) {
+		rwLock.acquire();
+		sLock.acquire();
+		SharedSegment segment = SharedSegment.lookup(id);
+		if (segment == null || attachments.size() >= SharedSegment.maxSegments) {
+			sLock.release();
+			rwLock.release();
+			return -1;
+		}
+
+		int first = findUnmapped(segment.numPages);
+		if (first == -1)
+			first = growAddressSpace(segment.numPages);
+		Attachment attachment = new Attachment(segment, first);
+		for (int i = 0; i < segment.numPages; i++)
+			attachedPages[first + i] = attachment;
+		attachments.add(attachment);
+		segment.numAttached++;
+
+		sLock.release();
+		rwLock.release();
+		return Processor.makeAddress(first, 0);
+	}
+
+	/**
+	 * Handle the shmdt() system call. Fails while any page of the segment is
+	 * pinned for I/O.
+	 */
+	private int handleShmDt(int vaddr) {
+		int vpn = Processor.pageFromAddress(vaddr);
+		if (Processor.offsetFromAddress(vaddr) != 0 || vpn < firstSharedVPN
+				|| vpn >= pageTable.length)
+			return -1;
+
+		rwLock.acquire();
+		sLock.acquire();
+		Attachment attachment = attachedPages[vpn];
+		boolean pinned = false;
+		for (int i = 0; attachment != null && i < attachment.segment.numPages; i++) {
+			TranslationEntry entry = pageTable[vpn + i];
+			if (entry.valid && IPT.get(findIdexOfPPN(entry.ppn)).isPinned())
+				pinned = true;
+		}
+		boolean ok = attachment != null && attachment.firstVPN == vpn && !pinned;
+		if (ok)
+			detach(attachment);
+		sLock.release();
+		rwLock.release();
+		return ok ? 0 : -1;
+	}
+
+	/**
+	 * Unmap a segment. A page that no other process has mapped is written to
+	 * swap, unless this was the segment's last attachment, in which case the
+	 * segment and everything it holds is freed. The caller must hold
+	 * <tt>rwLock</tt> and <tt>sLock</tt>.
+	 */
+	private void detach(Attachment attachment) {
+		SharedSegment segment = attachment.segment;
+		boolean last = (--segment.numAttached == 0);
+		for (int i = 0; i < segment.numPages; i++) {
+			int vpn = attachment.firstVPN + i;
+			TranslationEntry entry = pageTable[vpn];
+			attachedPages[vpn] = null;
+			boolean valid = entry.valid;
+			entry.valid = false;
+			entry.dirty = false;
+			if (!valid)
+				continue;
+
+			int idx = findIdexOfPPN(entry.ppn);
+			if (IPT.get(idx).removeMapping(this, vpn)) {
+				if (!last) {
+					segment.swapPages[i] = swapOut(entry.ppn);
+					vmStats.count(VMStats.swapOuts);
+					Machine.stats().numSwapWrites++;
+				}
+				segment.frames[i] = -1;
+				IPT.remove(idx);
+				UserKernel.addFreePage(entry.ppn);
+			}
+		}
+		attachments.remove(attachment);
+
+		if (last) {
+			for (int i = 0; i < segment.numPages; i++) {
+				if (segment.swapPages[i] != -1)
+					freeSwap(segment.swapPages[i]);
+			}
+			SharedSegment.remove(segment);
+		}
+		framesReleased.wakeAll();
+	}
+
+	/**
+	 * Give up the segments this process got from <tt>shmget()</tt>. One that
+	 * no process has attached and no other process has got is freed, so that
+	 * a segment that is never attached does not last forever. The caller
+	 * must hold <tt>rwLock</tt>.
+	 */
+	private void releaseSegments() {
+		for (SharedSegment segment : heldSegments) {
+			if (--segment.numHolders == 0 && segment.numAttached == 0
+					&& SharedSegment.lookup(segment.id) == segment)
+				SharedSegment.remove(segment);
+		}
+		heldSegments.clear();
+	}
+
+	/**
+	 * Return the first page of a run of <i>count</i> pages left unmapped by
+	 * detached segments, or -1 if there is none.
+	 */
+	private int findUnmapped(int count) {
+		int run = 0;
+		for (int vpn = firstSharedVPN; vpn < pageTable.length; vpn++) {
+			run = (attachedPages[vpn] == null) ? run + 1 : 0;
+			if (run == count)
+				return vpn - count + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add <i>count</i> unmapped pages to the end of the address space.
+	 *
+	 * @return the first new page.
+	 */
+	private int growAddressSpace(int count) {
+		int first = pageTable.length;
+		TranslationEntry[] table = new TranslationEntry[first + count];
+		System.arraycopy(pageTable, 0, table, 0, first);
+		for (int vpn = first; vpn < table.length; vpn++)
+			table[vpn] = new TranslationEntry(-1, -1, false, false, false, false);
+
+		pageTable = table;
+		mergedPages = java.util.Arrays.copyOf(mergedPages, table.length);
+		attachedPages = java.util.Arrays.copyOf(attachedPages, table.length);
+		numPages = table.length;
+		// the other threads of this process pick it up in restoreState()
+		Machine.processor().setPageTable(pageTable);
+		return first;
+	}
+
+	/**
+	 * Return <tt>true</tt> if a page is outside the address space, or in a
+	 * gap left by a detached segment.
+	 */
+	private boolean isUnmapped(int vpn) {
+		return vpn < 0 || vpn >= pageTable.length
+				|| (vpn >= firstSharedVPN && attachedPages[vpn] == null);
+	}
+
+	/**
+	 * Map a page of an attached segment, sharing its frame if another
+	 * process has it resident, and otherwise loading it from swap or
+	 * zero-filling it. The caller must hold <tt>rwLock</tt>.
+	 */
+	private void loadSharedPage(int vpn) {
+		Attachment attachment = attachedPages[vpn];
+		SharedSegment segment = attachment.segment;
+		int page = vpn - attachment.firstVPN;
+		int ppn = segment.frames[page];
+
+		if (ppn != -1) {
+			IPTdata frame = IPT.get(findIdexOfPPN(ppn));
+			if (frame.sharers == null)
+				frame.sharers = new ArrayList<IPTdata>();
+			frame.sharers.add(new IPTdata(ppn, vpn, false, this));
+			vmStats.count(VMStats.minorFaults);
+		}
+		else {
+			ppn = getFrame(vpn);
+			IPTdata frame = IPT.get(findIdexOfPPN(ppn));
+			frame.segment = segment;
+			frame.segmentPage = page;
+			if (segment.swapPages[page] != -1) {
+				swapIn(segment.swapPages[page], ppn);
+				segment.swapPages[page] = -1;
+				vmStats.count(VMStats.swapFaults);
+				vmStats.count(VMStats.swapIns);
+				Machine.stats().numSwapReads++;
+			}
+			else {
+				byte[] memory = Machine.processor().getMemory();
+				java.util.Arrays.fill(memory, ppn * pageSize, (ppn + 1) * pageSize, (byte) 0);
+				vmStats.count(VMStats.minorFaults);
+			}
+			segment.frames[page] = ppn;
+		}
+
+		TranslationEntry entry = pageTable[vpn];
+		entry.readOnly = false;
+		entry.dirty = false;
+		entry.valid = true;
+		entry.used = true;
+		entry.ppn = ppn;
+	}
+
+	/**
+	 * Handle the vmstat() system call. Copies this process's paging counters,
+	 * its resident set size and the kernel-wide frame counts to the array of
+	 * <tt>vmstatNumFields</tt> ints at <i>vaddr</i>.
+	 */
+	private int handleVMStat(int vaddr) {
+		byte[] buffer = new byte[vmstatNumFields * 4];
+		for (int i = 0; i < VMStats.numCounters; i++)
+			Lib.bytesFromInt(buffer, i * 4, vmStats.get(i));
+		Lib.bytesFromInt(buffer, vmstatResident * 4, getResidentPages());
+		Lib.bytesFromInt(buffer, vmstatFramesFree * 4, VMKernel.getNumFreePages());
+		Lib.bytesFromInt(buffer, vmstatFramesPinned * 4, getNumPinnedFrames());
+		Lib.bytesFromInt(buffer, vmstatFramesDirty * 4, getNumDirtyFrames());
+		Lib.bytesFromInt(buffer, vmstatFramesShared * 4, getNumSharedFrames());
+
+		if (writeVirtualMemory(vaddr, buffer) != buffer.length)
+			return -1;
+		return 0;
+	}
+
+	private static final int syscallVMStat = 13, syscallShmGet = 27,
+			syscallShmAt = 28, syscallShmDt = 29;
+
+	private static final int vmstatResident = VMStats.numCounters,
+			vmstatFramesFree = vmstatResident + 1,
+			vmstatFramesPinned = vmstatResident + 2,
+			vmstatFramesDirty = vmstatResident + 3,
+			vmstatFramesShared = vmstatResident + 4,
+			vmstatNumFields = vmstatResident + 5;
+
+	/**
+	 * Handle a syscall exception. Adds <tt>vmstat()</tt> and the shared
+	 * memory syscalls <tt>shmget()</tt>, <tt>shmat()</tt> and <tt>shmdt()</tt>
+	 * to the syscalls handled by <tt>UserProcess</tt>.
+	 *
+	 * @param syscall the syscall number.
+	 * @param a0      the first syscall argument.
+	 * @param a1      the second syscall argument.
+	 * @param a2      the third syscall argument.
+	 * @param a3      the fourth syscall argument.
+	 * @return the value to be returned to the user.
+	 */
+	public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+		switch (syscall) {
+			case syscallVMStat:
+				return handleVMStat(a0);
+			case syscallShmGet:
+				return handleShmGet(a0, a1);
+			case syscallShmAt:
+				return handleShmAt(a0);
+			case syscallShmDt:
+				return handleShmDt(a0);
+			default:
+				return super.handleSyscall(syscall, a0, a1, a2, a3);
+		}
 	}
 
 	/**
@@ -94,17 +420,42 @@ public class VMProcess extends UserProcess {
 		Processor processor = Machine.processor();
 		//cause = 1 so page fault occurs
 		switch (cause) {
-			case 1: rwLock.acquire();
+			case 1: enforceLimits();
+					rwLock.acquire();
+					waitForFrame();
 					sLock.acquire();
 					int va = processor.readRegister(Processor.regBadVAddr);	//virtual address of the exception register
+					if (isUnmapped(Processor.pageFromAddress(va))) {
+						sLock.release();
+						rwLock.release();
+						super.handleException(cause);
+						break;
+					}
+					if (VMKernel.pageTrace != null)
+						VMKernel.pageTrace.recordFault(getProcessID(), Processor.pageFromAddress(va));
 					//int ppn = VMKernel.getNextFreePage();
 					//nt vpn = Processor.pageFromAddress(va);
 					//pageTable[vpn].vpn = vpn;
 					//pageTable[vpn].ppn = ppn;
-					loadPage(va);
+					// another thread of the process may have loaded it meanwhile
+					if (!pageTable[Processor.pageFromAddress(va)].valid)
+						loadPage(va);
 					sLock.release();
 					rwLock.release();
 					break;
+			case Processor.exceptionReadOnly:
+				int vpn = Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr));
+				rwLock.acquire();
+				waitForFrame();
+				sLock.acquire();
+				boolean merged = mergedPages[vpn];
+				if (merged)
+					breakCOW(vpn);
+				sLock.release();
+				rwLock.release();
+				if (!merged)
+					super.handleException(cause);
+				break;
 			default:
 				super.handleException(cause);
 				break;
@@ -119,35 +470,32 @@ public class VMProcess extends UserProcess {
 			int counter = IPT.size();
 			int i = 0;
 			while(true){
+				boolean allPinned = true;
 				while(i < counter){
-					int index = IPT.get(evictPage).index;
-					VMProcess curProc = IPT.get(evictPage).process;
-					int ppn = curProc.pageTable[index].ppn;
-					Boolean used = curProc.pageTable[index].used;
+					IPTdata frame = IPT.get(evictPage);
+					int ppn = frame.ppn;
 					//Boolean pinned = IPT.get(evictPage).pinned;
-					if(used)
-						curProc.pageTable[index].used = false;
-					else if (!used){
-						curProc.pageTable[index].valid = false;
-						Boolean dirty = curProc.pageTable[index].dirty;
-						if(dirty){
-							numOfSwapAcess++; //testing variable
-							byte[] memory = Machine.processor().getMemory();
-							byte[] buffer = new byte[pageSize];
-							System.arraycopy(memory, ppn * pageSize, buffer, 0, pageSize);
-							if(freeSwapList.size() != 0){ //if there's a gap in swap file, we replace instead of append
-								int free = freeSwapList.remove(0);
-								VMKernel.swapFile.write(free* pageSize , buffer, 0, pageSize); //overrite 
-								curProc.pageTable[index].vpn = free; 
-							} else{
-								int free = numOfSwap; //should really be endOfSwap namewise.... 
-								numOfSwap++;
-								VMKernel.swapFile.write(free* pageSize , buffer, 0, pageSize); //append
-								curProc.pageTable[index].vpn = free; 
-							}
+					vmStats.count(VMStats.clockScans);
+					if (frame.ioPins > 0) {
+						// in use by blocked file I/O, see pinPage(); the pinned
+						// flag is only ever set while rwLock is held
+					}
+					else if(frame.isUsed()) {
+						frame.clearUsed();
+						allPinned = false;
+					}
+					else if (frame.segment != null) {
+						frame.evictShared();
+						evictPage = (evictPage + 1) % IPT.size();
+						return ppn;
+					}
+					else {
+						frame.evict(frame.process, frame.index);
+						if (frame.sharers != null) {
+							for (int s = 0; s < frame.sharers.size(); s++)
+								frame.evict(frame.sharers.get(s).process, frame.sharers.get(s).index);
+							frame.sharers = null;
 						}
-						//int idx = findIdexOfPPN(ppn);
-						//IPT.remove(idx);
 						evictPage = (evictPage + 1) % IPT.size();
 						return ppn;
 					}
@@ -155,8 +503,9 @@ public class VMProcess extends UserProcess {
 					evictPage = (evictPage + 1) % IPT.size();
 				}
 				i = 0;
-				
-				
+				// waitForFrame() made sure some frame is not pinned
+				Lib.assertTrue(!allPinned, "every frame is pinned for I/O");
+
 				//printPageTable();
 				//System.out.println(VMKernel.getNumFreePages() + "-----------------------------------");
 				//if (allPinned())
@@ -165,118 +514,457 @@ public class VMProcess extends UserProcess {
 		}
 	}
 
-	protected boolean loadPage(int va) {
+	/**
+	 * Write the contents of a frame to a free swap slot. The page goes to the
+	 * compressed swap cache if there is one and it accepts the page, and to
+	 * the swap device otherwise.
+	 *
+	 * @param ppn the frame to save.
+	 * @return the swap slot the page was saved in.
+	 */
+	private static int swapOut(int ppn) {
+		int spn = allocSwap();
 
-		int removedPPN = evictionClock();
+		byte[] memory = Machine.processor().getMemory();
+		if (VMKernel.swapCache == null
+				|| !VMKernel.swapCache.store(spn, memory, ppn * pageSize))
+			VMKernel.swapDevice.write(spn, memory, ppn * pageSize, 1);
+		return spn;
+	}
 
-		// load sections
-		Processor processor = Machine.processor();
-		int vpn = Processor.pageFromAddress(va); // get vpn from va
-	
-		int ppn;
-		
-		if (removedPPN == -1){ //free pages available, just get it.
-			ppn = VMKernel.getNextFreePage();
+	/**
+	 * Take the lowest free swap slot, and grow the swap space only if there
+	 * is none. Taking the lowest keeps the space compact and makes slots
+	 * taken one after another usually consecutive.
+	 *
+	 * @return the swap slot.
+	 */
+	private static int allocSwap() {
+		Integer spn = freeSwapList.pollFirst();
+		return (spn != null) ? spn : numOfSwap++;
+	}
+
+	/**
+	 * Read or write pages between a buffer and swap slots, with one transfer
+	 * for each run of consecutive slots.
+	 *
+	 * @param spns   the slot of each page.
+	 * @param first  the first page to transfer.
+	 * @param last   the last page to transfer.
+	 * @param buffer the pages, starting with page <i>first</i>.
+	 * @param write  <tt>true</tt> to write the pages to swap.
+	 */
+	private static void transferSwapRuns(int[] spns, int first, int last,
+			byte[] buffer, boolean write) {
+		int start = first;
+		for (int i = first; i <= last; i++) {
+			if (i < last && spns[i + 1] == spns[i] + 1)
+				continue;
+			int offset = (start - first) * pageSize, count = i - start + 1;
+			if (write)
+				VMKernel.swapDevice.write(spns[start], buffer, offset, count);
+			else
+				VMKernel.swapDevice.read(spns[start], buffer, offset, count);
+			start = i + 1;
 		}
-		else
-			ppn = removedPPN; //this page has been evicted and saved, now can be overwritten
+	}
 
-		boolean IPTFull = false;
+	/**
+	 * Read a page back from swap into a frame and free its swap slot.
+	 *
+	 * @param spn the swap slot holding the page.
+	 * @param ppn the frame to load it into.
+	 */
+	private static void swapIn(int spn, int ppn) {
+		byte[] memory = Machine.processor().getMemory();
+		if (VMKernel.swapCache == null
+				|| !VMKernel.swapCache.load(spn, memory, ppn * pageSize))
+			VMKernel.swapDevice.read(spn, memory, ppn * pageSize, 1);
+		freeSwapList.add(spn);
+	}
 
-		if (removedPPN == -1) {
-			IPTFull = false;
-		} else
-			IPTFull = true;
+	/**
+	 * Give up a swap slot whose contents are no longer needed.
+	 *
+	 * @param spn the swap slot to free.
+	 */
+	private static void freeSwap(int spn) {
+		if (VMKernel.swapCache != null)
+			VMKernel.swapCache.invalidate(spn);
+		freeSwapList.add(spn);
+	}
 
+	/**
+	 * Get a frame for the specified page, evicting another page if physical
+	 * memory is full, and record the mapping in the inverted page table. The
+	 * caller must fill in the frame and the page table entry.
+	 *
+	 * @param vpn the page the frame is for.
+	 * @return the frame.
+	 */
+	private int getFrame(int vpn) {
+		int removedPPN = evictionClock();
 
-		boolean dirty = pageTable[vpn].dirty;
+		if (removedPPN == -1){ //free pages available, just get it.
+			int ppn = VMKernel.getNextFreePage();
+			IPT.add(new IPTdata(ppn, vpn, false, this));
+			return ppn;
+		}
 
-		byte[] memory = Machine.processor().getMemory();
+		//this page has been evicted and saved, now can be overwritten
+		IPTdata frame = IPT.get(findIdexOfPPN(removedPPN));
+		frame.index = vpn; //index, actual vpn
+		frame.process = this;
+		frame.pinned = false; //just loaded, shouldn't be pinned
+		frame.sharers = null;
+		frame.segment = null;
+		return removedPPN;
+	}
 
-		if(dirty) { //read from swapfile
-			byte [] buffer = new byte[pageSize];
-			VMKernel.swapFile.read(pageTable[vpn].vpn * pageSize , buffer, 0, pageSize);
-			freeSwapList.add(pageTable[vpn].vpn);
-			System.arraycopy(buffer, 0, memory, ppn*pageSize, pageSize); //load to physical memory
-			pageTable[vpn].valid = true;
-			pageTable[vpn].used = true; //
-			pageTable[vpn].ppn = ppn;
-			if (IPTFull) {
-				int idx = findIdexOfPPN(ppn);
-				IPT.get(idx).ppn = ppn;
-				IPT.get(idx).index = vpn; //index, actual vpn
-				IPT.get(idx).process = this;
-				IPT.get(idx).pinned = false; //just loaded, shouldn't be pinned
-			}else{ //ipt not full
-				IPTdata data = new IPTdata(ppn, vpn, false, this);
-				IPT.add(data);
-				//here
-			}
-			//int idx = findIdexOfPPN(ppn);
-			//IPT.get(idx).ppn = ppn;
-			//IPT.get(idx).index = vpn; //index, actual vpn
-			//IPT.get(idx).process = this;
-			//IPT.get(idx).pinned = false; //just loaded, shouldn't be pinned
+	protected boolean loadPage(int va) {
+		int vpn = Processor.pageFromAddress(va); // get vpn from va
+		if (swappedPages != null) {
+			swapInProcess();
+			if (pageTable[vpn].valid)
+				return true;
+		}
+		if (attachedPages[vpn] != null) {
+			loadSharedPage(vpn);
 			return true;
+		}
+		int ppn = -1;
+		// a process at its frame limit replaces one of its own pages
+		if (getResidentPages() >= getLimit(rlimitFrames))
+			ppn = replaceOwnPage(vpn);
+		if (ppn == -1)
+			ppn = getFrame(vpn);
+		byte[] memory = Machine.processor().getMemory();
+		TranslationEntry entry = pageTable[vpn];
+
+		if(entry.dirty) { //read from swapfile
+			swapIn(entry.vpn, ppn);
+			vmStats.count(VMStats.swapFaults);
+			vmStats.count(VMStats.swapIns);
+			Machine.stats().numSwapReads++;
 			//pagetable[vpn].vpn which is really the spn, is useless, old spn might be taken away
 		} else {
-			for (int s = 0; s < coff.getNumSections(); s++) {
-				
-				CoffSection section = coff.getSection(s);
-
-				for (int i = 0; i < section.getLength(); i++) {
-					//check if vpn is inside section.getFirstVPN() + i, if it is inside means data segment and continue
-					//otherwise zerofill it. Create a byte with size of a page and zero-fill it, then load it into the memory
-					//we get from Processor.getMemory()
-					//return
-					if (vpn == section.getFirstVPN() + i) {
-						boolean isReadOnly = section.isReadOnly();
-						pageTable[vpn].readOnly = isReadOnly;
-						pageTable[vpn].valid = true;
-						pageTable[vpn].used = true;
-						pageTable[vpn].dirty = false;
-						pageTable[vpn].ppn = ppn; //updates ppn
-						section.loadPage(i, ppn);
-						
-						if (IPTFull) {
-							int idx = findIdexOfPPN(ppn);
-							IPT.get(idx).ppn = ppn;
-							IPT.get(idx).index = vpn; //index, actual vpn
-							IPT.get(idx).process = this;
-							IPT.get(idx).pinned = false; //just loaded, shouldn't be pinned
-						}else{ //ipt not full
-							IPTdata data = new IPTdata(ppn, vpn, false, this);
-							IPT.add(data);
-							//here
-						}
-						return true;
-					}
+			CoffSection section = null;
+			int sectionPage = 0;
+			for (int s = 0; s < coff.getNumSections() && section == null; s++) {
+				CoffSection candidate = coff.getSection(s);
+				//check if vpn is inside the section, otherwise the page is
+				//stack or arguments and gets zero-filled
+				if (vpn >= candidate.getFirstVPN()
+						&& vpn < candidate.getFirstVPN() + candidate.getLength()) {
+					section = candidate;
+					sectionPage = vpn - candidate.getFirstVPN();
 				}
 			}
-			
-			byte array[] = new byte[pageSize];
-
-			int paddr = ppn * pageSize;
-			pageTable[vpn].readOnly = false;
-			pageTable[vpn].used = true;
-			pageTable[vpn].valid = true;
-			pageTable[vpn].dirty = false;
-			pageTable[vpn].ppn = ppn;
-			System.arraycopy(array, 0, memory, paddr, pageSize);
-			
-			if (IPTFull) {
-				int idx = findIdexOfPPN(ppn);
-				IPT.get(idx).ppn = ppn;
-				IPT.get(idx).index = vpn; //index, actual vpn
-				IPT.get(idx).process = this;
-		//		IPT.get(idx).pinned = false; //just loaded, shouldn't be pinned
-			}else{ //ipt not full
-				IPTdata data = new IPTdata(ppn, vpn, false, this);
-				IPT.add(data);
+
+			entry.dirty = false;
+			if (section != null) {
+				entry.readOnly = section.isReadOnly();
+				loadCoffPage(section, sectionPage, ppn);
+				vmStats.count(VMStats.coffFaults);
+				Machine.stats().numCOFFReads++;
+			} else {
+				entry.readOnly = false;
+				java.util.Arrays.fill(memory, ppn * pageSize, (ppn + 1) * pageSize, (byte) 0);
+				vmStats.count(VMStats.minorFaults);
 			}
+		}
 
-			return true;
+		entry.valid = true;
+		entry.used = true;
+		entry.ppn = ppn;
+		return true;
+	}
+
+	/**
+	 * Take the frame of one of this process's own pages for another page,
+	 * choosing with a clock over its page table. Pinned and shared pages are
+	 * passed over, and so is the page of the current instruction, which the
+	 * faulting access needs resident alongside the new page.
+	 *
+	 * @param vpn the page the frame is for.
+	 * @return the frame, or -1 if no page could be replaced.
+	 */
+	private int replaceOwnPage(int vpn) {
+		int pcPage = Processor.pageFromAddress(Machine.processor().readRegister(
+				Processor.regPC));
+		for (int i = 0; i < 2 * pageTable.length; i++) {
+			int victim = replaceHand;
+			replaceHand = (replaceHand + 1) % pageTable.length;
+			TranslationEntry entry = pageTable[victim];
+			if (!entry.valid || victim == pcPage || attachedPages[victim] != null)
+				continue;
+			IPTdata frame = IPT.get(findIdexOfPPN(entry.ppn));
+			if (frame.isPinned() || frame.sharers != null)
+				continue;
+			if (entry.used) {
+				entry.used = false;
+				continue;
+			}
+
+			frame.evict(this, victim);
+			frame.index = vpn;
+			frame.pinned = false;
+			return frame.ppn;
 		}
+		return -1;
+	}
+
+	/**
+	 * Swap out the processes that have been blocked for at least
+	 * <i>idleTicks</i>, longest idle first, until at least <i>minFreePages</i>
+	 * frames are free. Called periodically by the process swapping thread of
+	 * <tt>VMKernel</tt>.
+	 */
+	static void swapOutIdleProcesses(int minFreePages, long idleTicks) {
+		rwLock.acquire();
+		sLock.acquire();
+		long now = Machine.timer().getTime();
+		ArrayList<VMProcess> idle = new ArrayList<VMProcess>();
+		for (int i = 0; i < processes.size(); i++) {
+			VMProcess process = processes.get(i);
+			if (process.isBlocked && process.swappedPages == null
+					&& now - process.blockedSince >= idleTicks)
+				idle.add(process);
+		}
+		while (VMKernel.getNumFreePages() < minFreePages && idle.size() > 0) {
+			VMProcess victim = idle.get(0);
+			for (int i = 1; i < idle.size(); i++) {
+				if (idle.get(i).blockedSince < victim.blockedSince)
+					victim = idle.get(i);
+			}
+			idle.remove(victim);
+			// it may have woken up while an earlier victim was being written
+			if (victim.isBlocked)
+				victim.swapOutProcess();
+		}
+		sLock.release();
+		rwLock.release();
+	}
+
+	/**
+	 * Write every resident page of this process that is neither pinned nor
+	 * shared to a run of new, contiguous swap slots with a single write, and
+	 * free the frames. The pages are remembered as the working set that
+	 * <tt>swapInProcess()</tt> reads back.
+	 */
+	private void swapOutProcess() {
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		for (int vpn = 0; vpn < pageTable.length; vpn++) {
+			if (!pageTable[vpn].valid)
+				continue;
+			IPTdata frame = IPT.get(findIdexOfPPN(pageTable[vpn].ppn));
+			if (!frame.isPinned() && frame.sharers == null && frame.segment == null)
+				pages.add(vpn);
+		}
+		if (pages.size() == 0)
+			return;
+
+		// slots come lowest first, so the set is usually one transfer
+		int[] spns = new int[pages.size()];
+		for (int i = 0; i < spns.length; i++)
+			spns[i] = allocSwap();
+		byte[] memory = Machine.processor().getMemory();
+		byte[] buffer = new byte[pages.size() * pageSize];
+		for (int i = 0; i < pages.size(); i++) {
+			int ppn = pageTable[pages.get(i)].ppn;
+			System.arraycopy(memory, ppn * pageSize, buffer, i * pageSize, pageSize);
+		}
+
+		// unmap before writing: the process may wake up during the write
+		swappedPages = new int[pages.size()];
+		swappedSpns = spns;
+		for (int i = 0; i < pages.size(); i++) {
+			TranslationEntry entry = pageTable[pages.get(i)];
+			IPT.remove(findIdexOfPPN(entry.ppn));
+			UserKernel.addFreePage(entry.ppn);
+			entry.valid = false;
+			entry.dirty = true; //now lives in swap
+			entry.vpn = spns[i];
+			swappedPages[i] = pages.get(i);
+		}
+		framesReleased.wakeAll();
+		transferSwapRuns(spns, 0, spns.length - 1, buffer, true);
+		vmStats.count(VMStats.evictions, pages.size());
+		vmStats.count(VMStats.swapOuts, pages.size());
+		Machine.stats().numSwapWrites += pages.size();
+		numProcessSwapOuts++;
+		numProcessSwapOutPages += pages.size();
+		Lib.debug(dbgVM, "swapped out process " + getProcessID() + ", "
+				+ pages.size() + " pages");
+	}
+
+	/**
+	 * Bring back the working set written by <tt>swapOutProcess()</tt>, with a
+	 * single read for each run of consecutive slots. Pages that were faulted
+	 * in or freed since are skipped, and at most half of physical memory is
+	 * read, so the batch cannot evict itself; the rest is left to fault in
+	 * normally.
+	 */
+	private void swapInProcess() {
+		int[] pages = swappedPages;
+		int[] spns = swappedSpns;
+		swappedPages = null;
+		swappedSpns = null;
+
+		int first = -1, last = -1;
+		for (int i = 0; i < pages.length; i++) {
+			if (isSwappedOutTo(pages[i], spns[i])) {
+				if (first == -1)
+					first = i;
+				last = i;
+			}
+		}
+		int room = Math.min(Machine.processor().getNumPhysPages() / 2,
+				getLimit(rlimitFrames) - getResidentPages());
+		if (first == -1 || room <= 0)
+			return;
+		last = Math.min(last, first + room - 1);
+
+		byte[] buffer = new byte[(last - first + 1) * pageSize];
+		transferSwapRuns(spns, first, last, buffer, false);
+
+		byte[] memory = Machine.processor().getMemory();
+		int loaded = 0;
+		for (int i = first; i <= last; i++) {
+			int spn = spns[i];
+			TranslationEntry entry = pageTable[pages[i]];
+			if (!isSwappedOutTo(pages[i], spn))
+				continue;
+
+			int ppn = getFrame(pages[i]);
+			// a slot reused since the batch write may hold a newer, cached copy
+			if (VMKernel.swapCache == null
+					|| !VMKernel.swapCache.load(spn, memory, ppn * pageSize))
+				System.arraycopy(buffer, (i - first) * pageSize, memory,
+						ppn * pageSize, pageSize);
+			freeSwapList.add(spn);
+			entry.ppn = ppn;
+			entry.valid = true;
+			entry.used = true;
+			loaded++;
+		}
+		vmStats.count(VMStats.swapIns, loaded);
+		Machine.stats().numSwapReads += loaded;
+		numProcessSwapIns++;
+		numProcessSwapInPages += loaded;
+		Lib.debug(dbgVM, "swapped in process " + getProcessID() + ", "
+				+ loaded + " pages");
+	}
+
+	private boolean isSwappedOutTo(int vpn, int spn) {
+		TranslationEntry entry = pageTable[vpn];
+		return !entry.valid && entry.dirty && entry.vpn == spn;
+	}
+
+	/**
+	 * Return a line describing the work done by whole-process swapping.
+	 */
+	static String getProcessSwapStats() {
+		return "swapped out " + numProcessSwapOuts + " (" + numProcessSwapOutPages
+				+ " pages), swapped in " + numProcessSwapIns + " ("
+				+ numProcessSwapInPages + " pages)";
+	}
+
+	/**
+	 * Give this process a private, writable copy of a page that was merged
+	 * with identical pages by <tt>mergeScan()</tt>. If no other page shares
+	 * the frame any more, the frame is simply made writable again.
+	 *
+	 * @param vpn the merged page being written.
+	 */
+	private void breakCOW(int vpn) {
+		TranslationEntry entry = pageTable[vpn];
+		IPTdata frame = IPT.get(findIdexOfPPN(entry.ppn));
+		mergedPages[vpn] = false;
+		entry.readOnly = false;
+		if (frame.sharers == null)
+			return;
+
+		byte[] memory = Machine.processor().getMemory();
+		byte[] contents = new byte[pageSize];
+		System.arraycopy(memory, entry.ppn * pageSize, contents, 0, pageSize);
+		entry.valid = false;
+		frame.removeMapping(this, vpn);
+
+		int ppn = getFrame(vpn);
+		System.arraycopy(contents, 0, memory, ppn * pageSize, pageSize);
+		entry.ppn = ppn;
+		entry.valid = true;
+		entry.used = true;
+		entry.dirty = true;
+		numCOWBreaks++;
+	}
+
+	/**
+	 * Look for frames with identical contents and merge them into one shared
+	 * frame, freeing the others. Writable pages that are merged become
+	 * read-only and are split again by <tt>breakCOW()</tt> on the first write.
+	 * Called periodically by the page merging thread of <tt>VMKernel</tt>.
+	 *
+	 * @param maxFrames the maximum number of frames to examine in this call.
+	 */
+	static void mergeScan(int maxFrames) {
+		rwLock.acquire();
+		sLock.acquire();
+		for (int n = 0; n < maxFrames && IPT.size() > 0; n++) {
+			if (mergeCursor >= IPT.size()) {
+				mergeCursor = 0;
+				mergeCandidates.clear();
+			}
+
+			IPTdata frame = IPT.get(mergeCursor);
+			numMergeScanned++;
+			if (!frame.isMergeable()) {
+				mergeCursor++;
+				continue;
+			}
+
+			int hash = hashFrame(frame.ppn);
+			Integer match = mergeCandidates.get(hash);
+			if (match != null && match != frame.ppn) {
+				int idx = findIdexOfPPN(match);
+				if (idx != -1 && IPT.get(idx).isMergeable()
+						&& sameContents(match, frame.ppn)) {
+					IPT.get(idx).merge(frame);
+					continue;
+				}
+			}
+			mergeCandidates.put(hash, frame.ppn);
+			mergeCursor++;
+		}
+		sLock.release();
+		rwLock.release();
+	}
+
+	private static int hashFrame(int ppn) {
+		byte[] memory = Machine.processor().getMemory();
+		int hash = 1;
+		for (int i = ppn * pageSize; i < (ppn + 1) * pageSize; i++)
+			hash = 31 * hash + memory[i];
+		return hash;
+	}
+
+	private static boolean sameContents(int ppn1, int ppn2) {
+		byte[] memory = Machine.processor().getMemory();
+		for (int i = 0; i < pageSize; i++) {
+			if (memory[ppn1 * pageSize + i] != memory[ppn2 * pageSize + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return a line describing the work done by <tt>mergeScan()</tt>.
+	 */
+	static String getMergeStats() {
+		return "scanned " + numMergeScanned + ", merged " + numMerged
+				+ ", copy-on-write breaks " + numCOWBreaks + ", shared frames "
+				+ getNumSharedFrames();
 	}
 
 		/**
@@ -325,6 +1013,12 @@ public class VMProcess extends UserProcess {
 
 		while(remaining > 0){
 			int vpn = Processor.pageFromAddress(vaddr);
+			if (isUnmapped(vpn)) {
+				rwLock.release();
+				return totalRead;
+			}
+			if (!pageTable[vpn].valid && waitForFrame())
+				continue;
 			int ppn = pageTable[vpn].ppn;
 			int idx = findIdexOfPPN(ppn);
 			if (idx != -1)
@@ -412,6 +1106,14 @@ public class VMProcess extends UserProcess {
 		
 		while(remaining > 0){
 			int vpn = Processor.pageFromAddress(vaddr);
+			if (isUnmapped(vpn)) {
+				rwLock.release();
+				return totalWrote;
+			}
+			if ((!pageTable[vpn].valid || mergedPages[vpn]) && waitForFrame())
+				continue;
+			if (pageTable[vpn].valid && mergedPages[vpn])
+				breakCOW(vpn);
 			int ppn = pageTable[vpn].ppn;
 			int idx = findIdexOfPPN(ppn);
 			if (idx != -1)
@@ -448,7 +1150,182 @@ public class VMProcess extends UserProcess {
 		return totalWrote;
 	}
 
-	private int findIdexOfPPN( int ppn){
+	/**
+	 * Return the number of pages of this process that are currently in
+	 * physical memory.
+	 */
+	public int getResidentPages() {
+		int resident = 0;
+		for (int i = 0; i < pageTable.length; i++) {
+			if (pageTable[i].valid)
+				resident++;
+		}
+		return resident;
+	}
+
+	/**
+	 * Return the number of frames this process holds.
+	 */
+	protected int getNumFrames() {
+		return (pageTable == null) ? 0 : getResidentPages();
+	}
+
+	/**
+	 * Return the number of swap slots this process holds, not counting those
+	 * of shared segments.
+	 */
+	protected int getNumSwapPages() {
+		if (pageTable == null)
+			return 0;
+		int swapped = 0;
+		for (int i = 0; i < pageTable.length; i++) {
+			if (!pageTable[i].valid && pageTable[i].dirty)
+				swapped++;
+		}
+		return swapped;
+	}
+
+	/**
+	 * Return the number of frames that are pinned for a kernel copy.
+	 */
+	static int getNumPinnedFrames() {
+		int pinned = 0;
+		for (int i = 0; i < IPT.size(); i++) {
+			if (IPT.get(i).isPinned())
+				pinned++;
+		}
+		return pinned;
+	}
+
+	/**
+	 * Return the number of frames whose contents must be written to swap
+	 * before they can be reused.
+	 */
+	static int getNumDirtyFrames() {
+		int dirty = 0;
+		for (int i = 0; i < IPT.size(); i++) {
+			TranslationEntry entry = IPT.get(i).process.pageTable[IPT.get(i).index];
+			if (entry.valid && entry.dirty)
+				dirty++;
+		}
+		return dirty;
+	}
+
+	/**
+	 * Return the number of frames that are mapped by more than one page.
+	 */
+	static int getNumSharedFrames() {
+		int shared = 0;
+		for (int i = 0; i < IPT.size(); i++) {
+			if (IPT.get(i).sharers != null)
+				shared++;
+		}
+		return shared;
+	}
+
+	/**
+	 * Make the page resident, private if it will be written, and pin its
+	 * frame.
+	 */
+	protected int pinPage(int vpn, boolean writing) {
+		rwLock.acquire();
+		if (!isUnmapped(vpn)
+				&& (!pageTable[vpn].valid || (writing && mergedPages[vpn])))
+			waitForFrame();
+		// checked again, since the page may be detached while waiting
+		if (isUnmapped(vpn)) {
+			rwLock.release();
+			return -1;
+		}
+
+		TranslationEntry entry = pageTable[vpn];
+		if (!entry.valid)
+			loadPage(Processor.makeAddress(vpn, 0));
+		if (writing && mergedPages[vpn])
+			breakCOW(vpn);
+		if (writing && entry.readOnly) {
+			rwLock.release();
+			return -1;
+		}
+
+		IPT.get(findIdexOfPPN(entry.ppn)).ioPins++;
+		entry.used = true;
+		if (writing)
+			entry.dirty = true;
+		int ppn = entry.ppn;
+		rwLock.release();
+		return ppn;
+	}
+
+	/**
+	 * Unpin a frame pinned by <tt>pinPage()</tt>, and wake the threads in
+	 * <tt>waitForFrame()</tt> if the frame can now be evicted.
+	 */
+	protected void unpinPage(int vpn) {
+		rwLock.acquire();
+		IPTdata frame = IPT.get(findIdexOfPPN(pageTable[vpn].ppn));
+		if (--frame.ioPins == 0)
+			framesReleased.wakeAll();
+		rwLock.release();
+	}
+
+	/**
+	 * A merged page shares its frame with another process only until it is
+	 * written, so its physical address cannot identify a futex word; it is
+	 * copied first. A pinned frame is never merged.
+	 */
+	protected int pinFutexPage(int vpn) {
+		int ppn = pinPage(vpn, false);
+		if (ppn == -1)
+			return -1;
+
+		rwLock.acquire();
+		boolean merged = mergedPages[vpn];
+		rwLock.release();
+		if (!merged)
+			return ppn;
+		unpinPage(vpn);
+		return pinPage(vpn, true);
+	}
+
+	/**
+	 * Wait while no frame is free and every frame is pinned for file I/O,
+	 * giving up <tt>rwLock</tt> until a frame is unpinned or freed, since the
+	 * threads holding the pins may need the lock to finish. Called before an
+	 * operation that may need a frame, with <tt>rwLock</tt> held and
+	 * <tt>sLock</tt> not. Pins are only added under <tt>rwLock</tt> and a
+	 * frame taken for a new page is not pinned, so from then until
+	 * <tt>rwLock</tt> is released the eviction clock always finds a victim.
+	 *
+	 * @return <tt>true</tt> if the lock was given up, in which case the caller
+	 *         must look at the page table again.
+	 */
+	private static boolean waitForFrame() {
+		boolean waited = false;
+		while (VMKernel.getNumFreePages() == 0 && !hasUnpinnedFrame()) {
+			framesReleased.sleep();
+			waited = true;
+		}
+		return waited;
+	}
+
+	private static boolean hasUnpinnedFrame() {
+		for (int i = 0; i < IPT.size(); i++) {
+			if (IPT.get(i).ioPins == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A page that was merged is write-protected only until it is copied, so
+	 * it still counts as writable for <tt>read()</tt>.
+	 */
+	protected boolean isReadOnly(int vpn) {
+		return super.isReadOnly(vpn) && !mergedPages[vpn];
+	}
+
+	private static int findIdexOfPPN( int ppn){
 		for(int i = 0; i < IPT.size(); i++){
 			if(IPT.get(i).ppn == ppn)
 				return i;
@@ -463,18 +1340,225 @@ public class VMProcess extends UserProcess {
 			process = proc;
 			pinned = pin;
 		}
+
+		/** Return true if any page mapping this frame was used. */
+		boolean isUsed() {
+			if (process.pageTable[index].used)
+				return true;
+			for (int s = 0; sharers != null && s < sharers.size(); s++) {
+				if (sharers.get(s).process.pageTable[sharers.get(s).index].used)
+					return true;
+			}
+			return false;
+		}
+
+		void clearUsed() {
+			process.pageTable[index].used = false;
+			for (int s = 0; sharers != null && s < sharers.size(); s++)
+				sharers.get(s).process.pageTable[sharers.get(s).index].used = false;
+		}
+
+		/** Unmap one page of this frame, saving it to swap if needed. */
+		void evict(VMProcess proc, int vpn) {
+			TranslationEntry entry = proc.pageTable[vpn];
+			entry.valid = false;
+			proc.vmStats.count(VMStats.evictions);
+			if (proc.mergedPages[vpn]) {
+				proc.mergedPages[vpn] = false;
+				entry.readOnly = false;
+			}
+			if(entry.dirty){
+				proc.vmStats.count(VMStats.swapOuts);
+				Machine.stats().numSwapWrites++;
+				entry.vpn = swapOut(ppn); //vpn field holds the spn while swapped out
+			}
+		}
+
+		/**
+		 * Unmap a page of a shared segment from every process and save it to
+		 * a swap slot of the segment.
+		 */
+		void evictShared() {
+			unmapShared(process, index);
+			for (int s = 0; sharers != null && s < sharers.size(); s++)
+				unmapShared(sharers.get(s).process, sharers.get(s).index);
+			sharers = null;
+			process.vmStats.count(VMStats.swapOuts);
+			Machine.stats().numSwapWrites++;
+			segment.swapPages[segmentPage] = swapOut(ppn);
+			segment.frames[segmentPage] = -1;
+			segment = null;
+		}
+
+		private void unmapShared(VMProcess proc, int vpn) {
+			TranslationEntry entry = proc.pageTable[vpn];
+			entry.valid = false;
+			entry.dirty = false;
+			proc.vmStats.count(VMStats.evictions);
+		}
+
+		/** Return true if this frame may be merged with an identical one. */
+		boolean isMergeable() {
+			if (isPinned() || segment != null || !process.pageTable[index].valid)
+				return false;
+			for (int s = 0; sharers != null && s < sharers.size(); s++) {
+				if (!sharers.get(s).process.pageTable[sharers.get(s).index].valid)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Move every page mapping <i>other</i> onto this frame, which has the
+		 * same contents, and free <i>other</i>.
+		 */
+		void merge(IPTdata other) {
+			if (sharers == null)
+				sharers = new ArrayList<IPTdata>();
+			share(process, index);
+			for (int s = 0; s < sharers.size(); s++)
+				share(sharers.get(s).process, sharers.get(s).index);
+
+			other.process.pageTable[other.index].ppn = ppn;
+			share(other.process, other.index);
+			sharers.add(new IPTdata(ppn, other.index, false, other.process));
+			for (int s = 0; other.sharers != null && s < other.sharers.size(); s++) {
+				IPTdata mapping = other.sharers.get(s);
+				mapping.process.pageTable[mapping.index].ppn = ppn;
+				share(mapping.process, mapping.index);
+				mapping.ppn = ppn;
+				sharers.add(mapping);
+			}
+
+			IPT.remove(other);
+			UserKernel.addFreePage(other.ppn);
+			numMerged++;
+		}
+
+		/** Write-protect a page that now shares this frame. */
+		private void share(VMProcess proc, int vpn) {
+			TranslationEntry entry = proc.pageTable[vpn];
+			if (!entry.readOnly) {
+				entry.readOnly = true;
+				proc.mergedPages[vpn] = true;
+			}
+		}
+
+		/**
+		 * Remove one page from the pages mapping this frame.
+		 *
+		 * @return true if no page maps this frame any more.
+		 */
+		boolean removeMapping(VMProcess proc, int vpn) {
+			if (process == proc && index == vpn) {
+				if (sharers == null)
+					return true;
+				IPTdata mapping = sharers.remove(0);
+				process = mapping.process;
+				index = mapping.index;
+			}
+			else {
+				for (int s = 0; s < sharers.size(); s++) {
+					if (sharers.get(s).process == proc && sharers.get(s).index == vpn) {
+						sharers.remove(s);
+						break;
+					}
+				}
+			}
+
+			if (sharers.size() == 0) {
+				sharers = null;
+				// the last page left needs no copy when it is written
+				if (process.mergedPages[index]) {
+					process.mergedPages[index] = false;
+					process.pageTable[index].readOnly = false;
+				}
+			}
+			return false;
+		}
+
+		/** Return true if this frame may not be evicted or moved. */
+		boolean isPinned() {
+			return pinned || ioPins > 0;
+		}
+
 		int ppn, index;
 		VMProcess process;
 		boolean pinned;
+
+		/** The number of pinPage() calls that have not been undone. */
+		int ioPins = 0;
+
+		/** The other pages mapping this frame, or null if it is not shared. */
+		ArrayList<IPTdata> sharers = null;
+
+		/** The shared segment this frame holds a page of, or null. */
+		SharedSegment segment = null;
+
+		int segmentPage;
+	}
+
+	/** A shared segment mapped into this process. */
+	private static class Attachment {
+		Attachment(SharedSegment segment, int firstVPN) {
+			this.segment = segment;
+			this.firstVPN = firstVPN;
+		}
+
+		SharedSegment segment;
+
+		int firstVPN;
 	}
 
+	/**
+	 * Pages that were writable before <tt>mergeScan()</tt> write-protected
+	 * them to share a frame.
+	 */
+	private boolean[] mergedPages;
+
+	/**
+	 * Pages written out by <tt>swapOutProcess()</tt>, or null if the process
+	 * has not been swapped out since it last ran.
+	 */
+	private int[] swappedPages = null;
+
+	/** The swap slot each of <tt>swappedPages</tt> was written to. */
+	private int[] swappedSpns = null;
+
+	/**
+	 * The attachment each page belongs to, or null. Pages from
+	 * <tt>firstSharedVPN</tt> on are only mapped while attached.
+	 */
+	private Attachment[] attachedPages;
+
+	private int firstSharedVPN;
+
+	private ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+
+	/** The segments this process has got from <tt>shmget()</tt>. */
+	private ArrayList<SharedSegment> heldSegments = new ArrayList<SharedSegment>();
+
+	/** Whether the thread of this process is blocked, and since when. */
+	private boolean isBlocked = false;
+
+	private int numBlockedThreads = 0;
+
+	/** The clock hand of <tt>replaceOwnPage()</tt>. */
+	private int replaceHand = 0;
+
+	private long blockedSince;
+
+	/** The paging counters of this process. */
+	protected VMStats vmStats = new VMStats();
+
 	private static final int pageSize = Processor.pageSize;
 
 	private static final char dbgProcess = 'a';
 
 	private static final char dbgVM = 'v';
 
-	private static ArrayList<Integer> freeSwapList = new ArrayList<Integer>();
+	/** Swap slots below <tt>numOfSwap</tt> that hold nothing. */
+	private static TreeSet<Integer> freeSwapList = new TreeSet<Integer>();
 	
 	private static int evictPage = 0;
 
@@ -482,7 +1566,18 @@ public class VMProcess extends UserProcess {
 
 	private static int numOfSwap = 0;
 
-	private static int numOfSwapAcess = 0;
+	/** Position of the merge scan in the IPT, and the hashes seen this pass. */
+	private static int mergeCursor = 0;
+
+	private static HashMap<Integer, Integer> mergeCandidates = new HashMap<Integer, Integer>();
+
+	private static int numMergeScanned = 0, numMerged = 0, numCOWBreaks = 0;
+
+	/** Every process with a page table, for the process swapper. */
+	private static ArrayList<VMProcess> processes = new ArrayList<VMProcess>();
+
+	private static int numProcessSwapOuts = 0, numProcessSwapOutPages = 0,
+			numProcessSwapIns = 0, numProcessSwapInPages = 0;
 
 	private static Condition cv;
 
@@ -492,6 +1587,9 @@ public class VMProcess extends UserProcess {
 
 	private static Lock sLock = new Lock();
 
+	/** Signalled when a frame pinned for I/O is unpinned, or frames are freed. */
+	private static Condition framesReleased = new Condition(rwLock);
+
 	public void printPageTable(){
 		for(int i = 0; i < pageTable.length; i++){
 			System.out.println("index/vpn: " + i + " vpn/spn: " + pageTable[i].vpn +  " ppn: " +  pageTable[i].ppn 
@@ -0,0 +1,102 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Paging counters for one process. Every counter bumped here is also bumped
+ * in the kernel-wide totals, so <tt>VMKernel.vmStats</tt> always holds the sum
+ * over every process that has run, including ones that already exited.
+ */
+public class VMStats {
+	/**
+	 * Allocate a new set of counters that also feeds the kernel-wide totals.
+	 */
+	public VMStats() {
+		this(VMKernel.vmStats);
+	}
+
+	/**
+	 * Allocate a new set of counters.
+	 *
+	 * @param total the counters to bump alongside these ones, or <tt>null</tt>.
+	 */
+	public VMStats(VMStats total) {
+		this.total = total;
+	}
+
+	/**
+	 * Increment the specified counter by one.
+	 *
+	 * @param counter one of the counter constants in this class.
+	 */
+	public void count(int counter) {
+		count(counter, 1);
+	}
+
+	/**
+	 * Increment the specified counter.
+	 *
+	 * @param counter one of the counter constants in this class.
+	 * @param amount  the amount to add.
+	 */
+	public void count(int counter, int amount) {
+		counters[counter] += amount;
+		if (total != null)
+			total.count(counter, amount);
+	}
+
+	/**
+	 * Return the value of the specified counter.
+	 *
+	 * @param counter one of the counter constants in this class.
+	 * @return the value of the counter.
+	 */
+	public int get(int counter) {
+		return counters[counter];
+	}
+
+	/**
+	 * Return the number of faults that had to read the page from the COFF file
+	 * or from swap.
+	 */
+	public int getMajorFaults() {
+		return counters[coffFaults] + counters[swapFaults];
+	}
+
+	public String toString() {
+		return "minor faults " + counters[minorFaults] + ", major faults "
+				+ getMajorFaults() + " (COFF " + counters[coffFaults]
+				+ ", swap " + counters[swapFaults] + "), swap-ins "
+				+ counters[swapIns] + ", swap-outs " + counters[swapOuts]
+				+ ", evictions " + counters[evictions] + ", clock scans "
+				+ counters[clockScans];
+	}
+
+	/** Faults satisfied without I/O (zero-filled stack and argument pages). */
+	public static final int minorFaults = 0;
+
+	/** Faults that read a page from the executable. */
+	public static final int coffFaults = 1;
+
+	/** Faults that read a page back from swap. */
+	public static final int swapFaults = 2;
+
+	/** Pages read back from swap, by faults or by kernel copies. */
+	public static final int swapIns = 3;
+
+	/** Dirty pages written to swap when they were evicted. */
+	public static final int swapOuts = 4;
+
+	/** Pages of this process taken away by the clock. */
+	public static final int evictions = 5;
+
+	/** Frames the clock hand passed over while looking for a victim. */
+	public static final int clockScans = 6;
+
+	/** The number of counters. */
+	public static final int numCounters = 7;
+
+	private int[] counters = new int[numCounters];
+
+	private VMStats total;
+}
@@ -0,0 +1,77 @@
+package nachos.vmsim;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between a recency list <i>T1</i> and a frequency list <i>T2</i>; ghost
+ * lists <i>B1</i> and <i>B2</i> remember recently evicted pages and steer
+ * the target size <i>p</i> of <i>T1</i>.
+ */
+public class ARCPolicy extends ReplacementPolicy {
+	public ARCPolicy(int numFrames, int numPages) {
+		super(numFrames, numPages);
+		PageList.Links links = new PageList.Links(numPages);
+		t1 = new PageList(links);
+		t2 = new PageList(links);
+		b1 = new PageList(links);
+		b2 = new PageList(links);
+	}
+
+	protected boolean reference(int index, int page, boolean writing, long tick) {
+		if (t1.contains(page) || t2.contains(page)) {
+			(t1.contains(page) ? t1 : t2).remove(page);
+			t2.addLast(page);
+			return false;
+		}
+
+		if (b1.contains(page)) {
+			p = Math.min(numFrames, p + Math.max(b2.size / (double) b1.size, 1));
+			replace(false);
+			b1.remove(page);
+			t2.addLast(page);
+			return true;
+		}
+
+		if (b2.contains(page)) {
+			p = Math.max(0, p - Math.max(b1.size / (double) b2.size, 1));
+			replace(true);
+			b2.remove(page);
+			t2.addLast(page);
+			return true;
+		}
+
+		if (t1.size + b1.size == numFrames) {
+			if (t1.size < numFrames) {
+				b1.removeFirst();
+				replace(false);
+			}
+			else {
+				t1.removeFirst();
+			}
+		}
+		else {
+			int total = t1.size + t2.size + b1.size + b2.size;
+			if (total >= numFrames) {
+				if (total == 2 * numFrames)
+					b2.removeFirst();
+				replace(false);
+			}
+		}
+		t1.addLast(page);
+		return true;
+	}
+
+	private void replace(boolean inB2) {
+		if (t1.size + t2.size < numFrames)
+			return;
+
+		if (t1.size > 0 && (t2.size == 0 || (inB2 && t1.size == (int) p)
+				|| t1.size > p))
+			b1.addLast(t1.removeFirst());
+		else
+			b2.addLast(t2.removeFirst());
+	}
+
+	private PageList t1, t2, b1, b2;
+
+	private double p = 0;
+}
@@ -0,0 +1,52 @@
+package nachos.vmsim;
+
+import java.util.Arrays;
+
+/**
+ * Second-chance clock replacement, as done by <tt>VMProcess</tt>.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+	public ClockPolicy(int numFrames, int numPages) {
+		super(numFrames, numPages);
+		frameOf = new int[numPages];
+		Arrays.fill(frameOf, -1);
+		pageIn = new int[numFrames];
+		used = new boolean[numFrames];
+	}
+
+	protected boolean reference(int index, int page, boolean writing, long tick) {
+		int frame = frameOf[page];
+		if (frame != -1) {
+			used[frame] = true;
+			return false;
+		}
+
+		if (numUsed < numFrames) {
+			frame = numUsed++;
+		}
+		else {
+			while (used[hand]) {
+				used[hand] = false;
+				hand = (hand + 1) % numFrames;
+			}
+			frame = hand;
+			frameOf[pageIn[frame]] = -1;
+			hand = (hand + 1) % numFrames;
+		}
+
+		pageIn[frame] = page;
+		frameOf[page] = frame;
+		used[frame] = true;
+		return true;
+	}
+
+	private int[] frameOf;
+
+	private int[] pageIn;
+
+	private boolean[] used;
+
+	private int numUsed = 0;
+
+	private int hand = 0;
+}
@@ -0,0 +1,26 @@
+package nachos.vmsim;
+
+/**
+ * Exact least-recently-used replacement.
+ */
+public class LRUPolicy extends ReplacementPolicy {
+	public LRUPolicy(int numFrames, int numPages) {
+		super(numFrames, numPages);
+		resident = new PageList(new PageList.Links(numPages));
+	}
+
+	protected boolean reference(int index, int page, boolean writing, long tick) {
+		if (resident.contains(page)) {
+			resident.remove(page);
+			resident.addLast(page);
+			return false;
+		}
+
+		if (resident.size == numFrames)
+			resident.removeFirst();
+		resident.addLast(page);
+		return true;
+	}
+
+	private PageList resident;
+}
@@ -0,0 +1,74 @@
+package nachos.vmsim;
+
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Belady's optimal replacement: evict the resident page whose next use is
+ * furthest in the future. Needs the whole trace in advance, so it only
+ * serves as a lower bound for the other policies.
+ */
+public class OPTPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new OPT policy.
+	 *
+	 * @param nextUse the next-use index of every reference, as computed by
+	 *                <tt>Trace.computeNextUse()</tt>.
+	 */
+	public OPTPolicy(int numFrames, int numPages, int[] nextUse) {
+		super(numFrames, numPages);
+		this.nextUse = nextUse;
+		residentNextUse = new int[numPages];
+		resident = new boolean[numPages];
+	}
+
+	protected boolean reference(int index, int page, boolean writing, long tick) {
+		boolean fault = !resident[page];
+
+		if (fault) {
+			if (numResident == numFrames)
+				evict();
+			else
+				numResident++;
+			resident[page] = true;
+		}
+
+		// entries are (next use, page); stale ones are skipped in evict()
+		residentNextUse[page] = nextUse[index];
+		queue.add(((long) nextUse[index] << 32) | page);
+		if (queue.size() > 8 * numFrames + 1024)
+			compact();
+		return fault;
+	}
+
+	private void compact() {
+		queue.clear();
+		for (int page = 0; page < numPages; page++) {
+			if (resident[page])
+				queue.add(((long) residentNextUse[page] << 32) | page);
+		}
+	}
+
+	private void evict() {
+		while (true) {
+			long entry = queue.poll();
+			int page = (int) entry;
+			int when = (int) (entry >>> 32);
+			if (resident[page] && residentNextUse[page] == when) {
+				resident[page] = false;
+				return;
+			}
+		}
+	}
+
+	private int[] nextUse;
+
+	private int[] residentNextUse;
+
+	private boolean[] resident;
+
+	private int numResident = 0;
+
+	private PriorityQueue<Long> queue = new PriorityQueue<Long>(64,
+			Collections.reverseOrder());
+}
@@ -0,0 +1,76 @@
+package nachos.vmsim;
+
+/**
+ * A doubly-linked list of page numbers that supports constant-time removal
+ * of any member. Lists built over the same <tt>PageList.Links</tt> share
+ * their link arrays, so a page may be on at most one of them at a time.
+ */
+class PageList {
+	/**
+	 * The link storage shared by a group of lists.
+	 */
+	static class Links {
+		Links(int numPages) {
+			prev = new int[numPages];
+			next = new int[numPages];
+			owner = new PageList[numPages];
+		}
+
+		int[] prev, next;
+
+		PageList[] owner;
+	}
+
+	PageList(Links links) {
+		this.links = links;
+	}
+
+	/** Return <tt>true</tt> if the specified page is on this list. */
+	boolean contains(int page) {
+		return links.owner[page] == this;
+	}
+
+	/** Add a page at the most-recent end of the list. */
+	void addLast(int page) {
+		links.owner[page] = this;
+		links.prev[page] = tail;
+		links.next[page] = nil;
+		if (tail == nil)
+			head = page;
+		else
+			links.next[tail] = page;
+		tail = page;
+		size++;
+	}
+
+	/** Remove a page from the list. The page must be on this list. */
+	void remove(int page) {
+		int p = links.prev[page], n = links.next[page];
+		if (p == nil)
+			head = n;
+		else
+			links.next[p] = n;
+		if (n == nil)
+			tail = p;
+		else
+			links.prev[n] = p;
+		links.owner[page] = null;
+		size--;
+	}
+
+	/** Remove and return the least-recent page, or <tt>nil</tt>. */
+	int removeFirst() {
+		int page = head;
+		if (page != nil)
+			remove(page);
+		return page;
+	}
+
+	static final int nil = -1;
+
+	int size = 0;
+
+	private int head = nil, tail = nil;
+
+	private Links links;
+}
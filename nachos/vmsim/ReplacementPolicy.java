@@ -0,0 +1,80 @@
+package nachos.vmsim;
+
+/**
+ * A page replacement policy managing a fixed number of simulated frames.
+ * Subclasses decide which resident page to evict on a fault.
+ */
+public abstract class ReplacementPolicy {
+	/**
+	 * Allocate a new policy.
+	 *
+	 * @param numFrames the number of physical frames to simulate.
+	 * @param numPages  the number of distinct pages in the trace.
+	 */
+	public ReplacementPolicy(int numFrames, int numPages) {
+		this.numFrames = numFrames;
+		this.numPages = numPages;
+	}
+
+	/**
+	 * Replay the whole trace against this policy.
+	 *
+	 * @param trace the trace to replay.
+	 * @return the number of page faults.
+	 */
+	public long run(Trace trace) {
+		long faults = 0;
+		for (int i = 0; i < trace.length; i++) {
+			if (reference(i, trace.pages[i], trace.writes[i], trace.ticks[i]))
+				faults++;
+		}
+		return faults;
+	}
+
+	/**
+	 * Simulate one reference.
+	 *
+	 * @param index   the position of the reference in the trace.
+	 * @param page    the page referenced.
+	 * @param writing <tt>true</tt> if the reference is a write.
+	 * @param tick    the simulated time of the reference.
+	 * @return <tt>true</tt> if the reference faulted.
+	 */
+	protected abstract boolean reference(int index, int page, boolean writing,
+			long tick);
+
+	/**
+	 * Construct a policy by name.
+	 *
+	 * @param name      one of <tt>policyNames</tt>.
+	 * @param numFrames the number of frames to simulate.
+	 * @param trace     the trace that will be replayed.
+	 * @param nextUse   the result of <tt>trace.computeNextUse()</tt>, needed
+	 *                  by OPT.
+	 * @return the new policy.
+	 */
+	public static ReplacementPolicy create(String name, int numFrames,
+			Trace trace, int[] nextUse) {
+		if (name.equals("clock"))
+			return new ClockPolicy(numFrames, trace.numPages);
+		else if (name.equals("lru"))
+			return new LRUPolicy(numFrames, trace.numPages);
+		else if (name.equals("arc"))
+			return new ARCPolicy(numFrames, trace.numPages);
+		else if (name.equals("wsclock"))
+			return new WSClockPolicy(numFrames, trace.numPages,
+					WSClockPolicy.defaultTau);
+		else if (name.equals("opt"))
+			return new OPTPolicy(numFrames, trace.numPages, nextUse);
+		else
+			throw new IllegalArgumentException("unknown policy " + name);
+	}
+
+	/** The names accepted by <tt>create()</tt>. */
+	public static final String[] policyNames = { "clock", "lru", "arc",
+			"wsclock", "opt" };
+
+	protected int numFrames;
+
+	protected int numPages;
+}
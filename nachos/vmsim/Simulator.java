@@ -0,0 +1,129 @@
+package nachos.vmsim;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Offline page replacement simulator. Replays a trace recorded with
+ * <tt>VMKernel.traceFile</tt> against every policy in
+ * <tt>ReplacementPolicy.policyNames</tt> at a range of memory sizes, and
+ * prints one row of fault rates per memory size.
+ *
+ * <p>
+ * Usage:
+ * <pre>
+ * java nachos.vmsim.Simulator <i>trace</i> [<i>minFrames</i> [<i>maxFrames</i> [<i>step</i>]]]
+ * </pre>
+ *
+ * <p>
+ * Each (policy, memory size) pair is an independent replay, so they are
+ * spread over a fork-join pool.
+ */
+public class Simulator {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 4)
+			usage();
+
+		int minFrames = 1, maxFrames = -1, step = 1;
+		try {
+			if (args.length > 1)
+				minFrames = Integer.parseInt(args[1]);
+			if (args.length > 2)
+				maxFrames = Integer.parseInt(args[2]);
+			if (args.length > 3)
+				step = Integer.parseInt(args[3]);
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+		if (minFrames < 1 || step < 1
+				|| (args.length > 2 && maxFrames < minFrames))
+			usage();
+
+		Trace trace = new Trace(args[0]);
+		if (args.length <= 2)
+			maxFrames = Math.max(minFrames, trace.numPages);
+
+		System.out.println("# " + args[0] + ": " + trace.length
+				+ " references, " + trace.numPages + " distinct pages, "
+				+ trace.recordedFaults + " faults while recording");
+		if (trace.length == 0)
+			return;
+
+		String[] policies = ReplacementPolicy.policyNames;
+		int numSizes = (maxFrames - minFrames) / step + 1;
+		long[][] faults = new long[numSizes][policies.length];
+
+		new ForkJoinPool().invoke(new Replay(trace, trace.computeNextUse(),
+				policies, minFrames, step, faults, 0, numSizes * policies.length));
+
+		System.out.print("frames");
+		for (int p = 0; p < policies.length; p++)
+			System.out.print("\t" + policies[p]);
+		System.out.println();
+
+		for (int s = 0; s < numSizes; s++) {
+			System.out.print(minFrames + s * step);
+			for (int p = 0; p < policies.length; p++)
+				System.out.printf("\t%.6f", faults[s][p] / (double) trace.length);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Print how to run the simulator and exit. The frame counts must be
+	 * positive, with <i>minFrames</i> no more than <i>maxFrames</i>.
+	 */
+	private static void usage() {
+		System.err.println("usage: java nachos.vmsim.Simulator trace "
+				+ "[minFrames [maxFrames [step]]]");
+		System.exit(1);
+	}
+
+	/**
+	 * Replays a contiguous range of the (memory size, policy) grid, splitting
+	 * the range in half until only one replay is left.
+	 */
+	private static class Replay extends RecursiveAction {
+		Replay(Trace trace, int[] nextUse, String[] policies, int minFrames,
+				int step, long[][] faults, int first, int last) {
+			this.trace = trace;
+			this.nextUse = nextUse;
+			this.policies = policies;
+			this.minFrames = minFrames;
+			this.step = step;
+			this.faults = faults;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) / 2;
+				invokeAll(new Replay(trace, nextUse, policies, minFrames, step,
+						faults, first, middle), new Replay(trace, nextUse,
+						policies, minFrames, step, faults, middle, last));
+				return;
+			}
+
+			int size = first / policies.length;
+			int policy = first % policies.length;
+			ReplacementPolicy replacement = ReplacementPolicy.create(
+					policies[policy], minFrames + size * step, trace, nextUse);
+			faults[size][policy] = replacement.run(trace);
+		}
+
+		private Trace trace;
+
+		private int[] nextUse;
+
+		private String[] policies;
+
+		private int minFrames, step, first, last;
+
+		private long[][] faults;
+
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,161 @@
+package nachos.vmsim;
+
+import nachos.vm.PageTraceRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * A page reference trace written by <tt>nachos.vm.PageTraceRecorder</tt>,
+ * loaded into memory so that it can be replayed many times.
+ *
+ * <p>
+ * Every (process, virtual page) pair is renumbered to a dense page number
+ * starting at 0. When a process exits, later references by a process with
+ * the same ID are treated as a different address space, so the pages of the
+ * dead process are never hit again and simply age out of the simulated
+ * memory.
+ */
+public class Trace {
+	/**
+	 * Load the specified trace file.
+	 *
+	 * @param fileName the name of the trace file on the host.
+	 */
+	public Trace(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 1 << 16));
+		try {
+			if (in.readInt() != PageTraceRecorder.traceMagic)
+				throw new IOException(fileName + ": not a page trace");
+			if (in.readInt() != PageTraceRecorder.traceVersion)
+				throw new IOException(fileName + ": unsupported trace version");
+			pageSize = in.readInt();
+
+			load(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void load(DataInputStream in) throws IOException {
+		HashMap<Long, Integer> pageNumbers = new HashMap<Long, Integer>();
+		HashMap<Integer, Integer> addressSpaces = new HashMap<Integer, Integer>();
+		int nextAddressSpace = 0;
+		long tick = 0;
+
+		pages = new int[1024];
+		ticks = new long[1024];
+		writes = new boolean[1024];
+
+		while (true) {
+			long delta;
+			try {
+				delta = readVarint(in);
+			}
+			catch (EOFException e) {
+				break;
+			}
+			int pid = (int) readVarint(in);
+			long field = readVarint(in);
+			int vpn = (int) (field >>> 2);
+			int kind = (int) (field & 3);
+			tick += delta;
+
+			Integer space = addressSpaces.get(pid);
+			if (space == null) {
+				space = nextAddressSpace++;
+				addressSpaces.put(pid, space);
+			}
+
+			switch (kind) {
+				case PageTraceRecorder.kindFault:
+					recordedFaults++;
+					continue;
+				case PageTraceRecorder.kindExit:
+					addressSpaces.remove(pid);
+					continue;
+			}
+
+			long key = ((long) space << 32) | vpn;
+			Integer page = pageNumbers.get(key);
+			if (page == null) {
+				page = numPages++;
+				pageNumbers.put(key, page);
+			}
+
+			if (length == pages.length)
+				grow();
+			pages[length] = page;
+			ticks[length] = tick;
+			writes[length] = (kind == PageTraceRecorder.kindWrite);
+			length++;
+		}
+	}
+
+	private void grow() {
+		int[] newPages = new int[length * 2];
+		long[] newTicks = new long[length * 2];
+		boolean[] newWrites = new boolean[length * 2];
+		System.arraycopy(pages, 0, newPages, 0, length);
+		System.arraycopy(ticks, 0, newTicks, 0, length);
+		System.arraycopy(writes, 0, newWrites, 0, length);
+		pages = newPages;
+		ticks = newTicks;
+		writes = newWrites;
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	/**
+	 * For each reference, compute the index of the next reference to the same
+	 * page, or <tt>Integer.MAX_VALUE</tt> if the page is never used again.
+	 *
+	 * @return the next-use index of every reference.
+	 */
+	public int[] computeNextUse() {
+		int[] nextUse = new int[length];
+		int[] lastSeen = new int[numPages];
+		java.util.Arrays.fill(lastSeen, Integer.MAX_VALUE);
+
+		for (int i = length - 1; i >= 0; i--) {
+			nextUse[i] = lastSeen[pages[i]];
+			lastSeen[pages[i]] = i;
+		}
+		return nextUse;
+	}
+
+	/** The page size of the machine that recorded the trace. */
+	public int pageSize;
+
+	/** The number of references in the trace. */
+	public int length = 0;
+
+	/** The number of distinct pages referenced. */
+	public int numPages = 0;
+
+	/** The number of page faults the recording kernel actually took. */
+	public int recordedFaults = 0;
+
+	/** The dense page number of each reference. */
+	public int[] pages;
+
+	/** The simulated time of each reference. */
+	public long[] ticks;
+
+	/** Whether each reference was a write. */
+	public boolean[] writes;
+}
@@ -0,0 +1,96 @@
+package nachos.vmsim;
+
+import java.util.Arrays;
+
+/**
+ * WSClock replacement (Carr and Hennessy). The hand skips pages used within
+ * the last <i>tau</i> ticks; an old clean page is evicted at once, while an
+ * old dirty page is scheduled for write-back and passed over. If the hand
+ * goes all the way around twice without finding an old clean page, the
+ * least recently used clean page (or, failing that, the least recently used
+ * page) is evicted.
+ */
+public class WSClockPolicy extends ReplacementPolicy {
+	public WSClockPolicy(int numFrames, int numPages, long tau) {
+		super(numFrames, numPages);
+		this.tau = tau;
+		frameOf = new int[numPages];
+		Arrays.fill(frameOf, -1);
+		pageIn = new int[numFrames];
+		used = new boolean[numFrames];
+		dirty = new boolean[numFrames];
+		lastUse = new long[numFrames];
+	}
+
+	protected boolean reference(int index, int page, boolean writing, long tick) {
+		int frame = frameOf[page];
+		if (frame != -1) {
+			used[frame] = true;
+			dirty[frame] |= writing;
+			return false;
+		}
+
+		if (numUsed < numFrames) {
+			frame = numUsed++;
+		}
+		else {
+			frame = findVictim(tick);
+			frameOf[pageIn[frame]] = -1;
+		}
+
+		pageIn[frame] = page;
+		frameOf[page] = frame;
+		used[frame] = true;
+		dirty[frame] = writing;
+		lastUse[frame] = tick;
+		return true;
+	}
+
+	private int findVictim(long tick) {
+		int oldestClean = -1, oldest = -1;
+		for (int scanned = 0; scanned < 2 * numFrames; scanned++) {
+			int frame = hand;
+			hand = (hand + 1) % numFrames;
+
+			if (used[frame]) {
+				used[frame] = false;
+				lastUse[frame] = tick;
+			}
+			else if (tick - lastUse[frame] > tau) {
+				if (!dirty[frame])
+					return frame;
+				// schedule the write; the page is clean by the next pass
+				dirty[frame] = false;
+				writeBacks++;
+			}
+
+			if (oldest == -1 || lastUse[frame] < lastUse[oldest])
+				oldest = frame;
+			if (!dirty[frame] && (oldestClean == -1
+					|| lastUse[frame] < lastUse[oldestClean]))
+				oldestClean = frame;
+		}
+
+		return (oldestClean != -1) ? oldestClean : oldest;
+	}
+
+	/** The default working-set window, in ticks. */
+	public static final long defaultTau = 20000;
+
+	/** The number of dirty pages scheduled for write-back by the hand. */
+	public long writeBacks = 0;
+
+	private long tau;
+
+	private int[] frameOf;
+
+	private int[] pageIn;
+
+	private boolean[] used, dirty;
+
+	private long[] lastUse;
+
+	private int numUsed = 0;
+
+	private int hand = 0;
+}